@@ -5,119 +5,126 @@
  * @author Alina Pestova
  */
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntConsumer;
 
 /**
  * Main class to run the game simulation
  */
 public class Game {
-    public static void main(String[] args) {
-        Scanner scanner = new Scanner(System.in);
+    public static void main(String[] args) throws IOException {
+        boolean binary = false;
+        Team automated = null;
+        String path = null;
+        for (String arg : args) {
+            if (arg.equals("--binary")) {
+                binary = true;
+            } else if (arg.startsWith("--ai=")) {
+                automated = Team.valueOf(arg.substring("--ai=".length()));
+                if (automated != Team.GREEN && automated != Team.RED) {
+                    throw new IllegalArgumentException("--ai must be GREEN or RED: " + arg);
+                }
+            } else {
+                path = arg;
+            }
+        }
+        ScriptReader reader = path == null ? new ScriptReader(System.in) : ScriptReader.map(Path.of(path));
 
-        int N = scanner.nextInt();
+        int N = reader.nextInt();
         Board board = Board.getInstance(N, N);
-
-        int greenY = scanner.nextInt();
-        int greenX = scanner.nextInt();
-        int redY = scanner.nextInt();
-        int redX = scanner.nextInt();
-
-        Figure greenFigure = FigureFactory.create("GREEN", greenX, greenY);
-        Figure redFigure = FigureFactory.create("RED", redX, redY);
-        greenFigure.setStrategy(new NormalStrategy());
-        redFigure.setStrategy(new NormalStrategy());
-
-        board.addComponent(greenFigure);
-        board.addComponent(redFigure);
-
-        int M = scanner.nextInt();
-        for (int i = 0; i < M; i++) {
-            int coinY = scanner.nextInt();
-            int coinX = scanner.nextInt();
-            int coinValue = scanner.nextInt();
-            board.addComponent(new Coin(coinX, coinY, coinValue));
+        if (binary) {
+            board.setEvents(new BinaryEventSink(System.out));
         }
 
+        // Whatever was performed before malformed or truncated input is still written out.
+        try {
+            int greenY = reader.nextInt();
+            int greenX = reader.nextInt();
+            int redY = reader.nextInt();
+            int redX = reader.nextInt();
+
+            Figure greenFigure = FigureFactory.create("GREEN", greenX, greenY);
+            Figure redFigure = FigureFactory.create("RED", redX, redY);
+            greenFigure.setStrategy(NormalStrategy.INSTANCE);
+            redFigure.setStrategy(NormalStrategy.INSTANCE);
+            if (automated != null) {
+                Figure figure = automated == Team.GREEN ? greenFigure : redFigure;
+                figure.setStrategy(new SearchStrategy(ForkJoinPool.commonPool(), SearchStrategy.DEFAULT_BUDGET_MILLIS));
+            }
 
-        int P = scanner.nextInt();
-        for (int i = 0; i < P; i++) {
-            String figureType = scanner.next();
-            String action = scanner.next();
+            board.addComponent(greenFigure);
+            board.addComponent(redFigure);
 
-            Figure figure = null;
-            switch (figureType) {
-                case "GREEN":
-                    figure = greenFigure;
-                    break;
-                case "RED":
-                    figure = redFigure;
-                    break;
-                case "GREENCLONE":
-                    figure = board.findFigureByTeam(Team.GREENCLONE);
-                    break;
-                case "REDCLONE":
-                    figure = board.findFigureByTeam(Team.REDCLONE);
-                    break;
-                default:
-                    System.out.println("INVALID ACTION");
-                    continue;
+            int M = reader.nextInt();
+            for (int i = 0; i < M; i++) {
+                int coinY = reader.nextInt();
+                int coinX = reader.nextInt();
+                int coinValue = reader.nextInt();
+                board.addComponent(new Coin(coinX, coinY, coinValue));
             }
 
-            if (figure != null && !figure.isAlive()) {
-                System.out.println("INVALID ACTION");
-                continue;
-            }
 
-            switch (action) {
-                case "UP":
-                case "DOWN":
-                case "LEFT":
-                case "RIGHT":
-                    if (figure != null) {
-                        figure.move(action);
-                    } else {
-                        System.out.println("INVALID ACTION");
-                    }
-                    break;
-                case "STYLE":
-                    if (figure != null) {
-                        figure.changeStyle();
-                    } else {
-                        System.out.println("INVALID ACTION");
-                    }
-                    break;
-                case "COPY":
-                    if (figure == null) {
-                        System.out.println("INVALID ACTION");
-                        continue;
-                    } else {
-                        figure.cloneFigure(board);
-                    }
-                    break;
-                default:
-                    System.out.println("INVALID ACTION");
+            int P = reader.nextInt();
+            for (int i = 0; i < P; i++) {
+                Team figureType = reader.nextTeam();
+                Action action = reader.nextAction();
+                perform(board, figureType, action);
             }
+
+            evaluateEndGame(board);
+        } finally {
+            board.getEvents().flush();
+        }
+    }
+
+    /**
+     * Performs one scripted action. A figure that is missing or dead, or an unknown figure
+     * or action, makes the action invalid
+     *
+     * @param board  the game board
+     * @param team   the team of the acting figure, or null if the name was not recognized
+     * @param action the action, or null if it was not recognized
+     */
+    static void perform(Board board, Team team, Action action) {
+        Figure figure = team == null ? null : board.findFigureByTeam(team);
+        if (figure == null || action == null) {
+            board.getEvents().invalid();
+            return;
         }
 
-        evaluateEndGame(board);
+        switch (action) {
+            case UP, DOWN, LEFT, RIGHT -> figure.move(action.direction);
+            case STYLE -> figure.changeStyle();
+            case COPY -> figure.cloneFigure(board);
+        }
     }
 
     /**
-     * Evaluates the end game and prints the result based on team scores
+     * Evaluates the end game and reports the result based on team scores
      *
      * @param board the game board
      */
     public static void evaluateEndGame(Board board) {
-        int greenScore = board.getTeamScore().getGreenScore();
-        int redScore = board.getTeamScore().getRedScore();
-
-        if (greenScore > redScore) {
-            System.out.printf("GREEN TEAM WINS. SCORE %d %d\n", greenScore, redScore);
-        } else if (redScore > greenScore) {
-            System.out.printf("RED TEAM WINS. SCORE %d %d\n", greenScore, redScore);
-        } else {
-            System.out.printf("TIE. SCORE %d %d\n", greenScore, redScore);
-        }
+        board.getEvents().finished(board.getTeamScore().getGreenScore(), board.getTeamScore().getRedScore());
     }
 
 }
@@ -134,7 +141,78 @@ interface BoardComponent {
 /**
  * Enum representing the teams in the game
  */
-enum Team {GREEN, RED, GREENCLONE, REDCLONE}
+enum Team {
+    GREEN, RED, GREENCLONE, REDCLONE;
+
+    /**
+     * Checks if two teams play on the same side
+     *
+     * @param other the other team
+     * @return true if both teams are green or both are red
+     */
+    boolean isAlly(Team other) {
+        return isGreen() == other.isGreen();
+    }
+
+    /**
+     * @return true for the green figure and its clone
+     */
+    boolean isGreen() {
+        return this == GREEN || this == GREENCLONE;
+    }
+}
+
+/**
+ * Enum representing the result of a match, decided the same way as {@link Game#evaluateEndGame(Board)}
+ */
+enum Outcome {
+    GREEN_WINS, RED_WINS, TIE;
+
+    /**
+     * Decides the result from the final scores
+     *
+     * @param greenScore the green team's score
+     * @param redScore   the red team's score
+     * @return the outcome
+     */
+    static Outcome of(int greenScore, int redScore) {
+        if (greenScore > redScore) {
+            return GREEN_WINS;
+        } else if (redScore > greenScore) {
+            return RED_WINS;
+        }
+        return TIE;
+    }
+}
+
+/**
+ * Enum representing the directions a figure can move in, with unit deltas
+ */
+enum Direction {
+    UP(0, -1), DOWN(0, 1), LEFT(-1, 0), RIGHT(1, 0);
+
+    static final int COUNT = values().length;
+
+    final int dx, dy;
+
+    Direction(int dx, int dy) {
+        this.dx = dx;
+        this.dy = dy;
+    }
+}
+
+/**
+ * Enum representing the actions of the input script, decoded once per command
+ */
+enum Action {
+    UP(Direction.UP), DOWN(Direction.DOWN), LEFT(Direction.LEFT), RIGHT(Direction.RIGHT), STYLE(null), COPY(null);
+
+    final Direction direction;
+
+    Action(Direction direction) {
+        this.direction = direction;
+    }
+}
 
 /**
  * Abstract class representing a figure in the game
@@ -195,9 +273,21 @@ abstract class Figure implements BoardComponent {
         this.strategy = strategy;
     }
 
+    /**
+     * Switches to the strategy of a new style, unless the figure is driven by a search,
+     * which reads the style from the figure and stays in charge across style changes
+     *
+     * @param strategy the strategy of the new style
+     */
+    void setStyleStrategy(Strategy strategy) {
+        if (!(this.strategy instanceof SearchStrategy)) {
+            this.strategy = strategy;
+        }
+    }
+
     abstract void changeStyle();
 
-    abstract void move(String direction);
+    abstract void move(Direction direction);
 
     abstract Figure cloneFigure(Board board);
 }
@@ -215,90 +305,43 @@ interface Strategy {
      * @param figure    the figure to move
      * @param direction the direction to move
      */
-    void move(Figure figure, String direction);
+    void move(Figure figure, Direction direction);
 }
 
-class NormalStrategy implements Strategy {
+/**
+ * Base class for strategies that move a figure a fixed number of cells in one direction.
+ * The step is folded into a delta table indexed by direction ordinal once, at construction
+ */
+abstract class StepStrategy implements Strategy {
+    private final int[] dx = new int[Direction.COUNT];
+    private final int[] dy = new int[Direction.COUNT];
+
     /**
-     * Moves the figure in the specified direction due to normal strategy
+     * Constructs a strategy with precomputed deltas for the given step
      *
-     * @param figure    the figure to move
-     * @param direction the direction to move
+     * @param step number of cells covered by one move
      */
-    @Override
-    public void move(Figure figure, String direction) {
-        int newX = figure.x;
-        int newY = figure.y;
-
-        switch (direction) {
-            case "LEFT" -> newX -= 1;
-            case "RIGHT" -> newX += 1;
-            case "UP" -> newY -= 1;
-            case "DOWN" -> newY += 1;
-            default -> {
-                System.out.println("INVALID ACTION");
-                return;
-            }
-        }
-
-        Board board = Board.getInstance();
-        if (!board.isInField(newX, newY)) {
-            System.out.println("INVALID ACTION");
-            return;
-        }
-
-        /**
-         * Checking for all variants of moving - to move, to move and earn point, to move and to kill enemy
-         */
-        BoardComponent component = board.getComponent(newX, newY);
-        if (component == null) {
-            board.moveFigure(figure, newX, newY);
-            System.out.println(figure.team + " MOVED TO " + newY + " " + newX);
-        } else if (component instanceof Figure enemy) {
-            if (((figure.team == Team.GREEN || figure.team == Team.GREENCLONE) && (enemy.team == Team.GREENCLONE || enemy.team == Team.GREEN)) ||
-                    ((figure.team == Team.RED || figure.team == Team.REDCLONE) && (enemy.team == Team.REDCLONE || enemy.team == Team.RED))) {
-                System.out.println("INVALID ACTION");
-            } else {
-                enemy.setAlive(false);
-                board.clearComponent(newX, newY);
-                board.moveFigure(figure, newX, newY);
-                System.out.println(figure.team + " MOVED TO " + newY + " " + newX + " AND KILLED " + enemy.team);
-            }
-        } else if (component instanceof Coin coin) {
-            board.getTeamScore().addScore(figure.team, coin.getValue());
-            board.clearComponent(newX, newY);
-            board.moveFigure(figure, newX, newY);
-            System.out.println(figure.team + " MOVED TO " + newY + " " + newX + " AND COLLECTED " + coin.getValue());
+    StepStrategy(int step) {
+        for (Direction direction : Direction.values()) {
+            dx[direction.ordinal()] = direction.dx * step;
+            dy[direction.ordinal()] = direction.dy * step;
         }
     }
-}
 
-class AttackingStrategy implements Strategy {
     /**
-     * Moves the figure in the specified direction due to normal strategy
+     * Moves the figure in the specified direction using the delta table of this strategy
      *
      * @param figure    the figure to move
      * @param direction the direction to move
      */
     @Override
-    public void move(Figure figure, String direction) {
-        int newX = figure.x;
-        int newY = figure.y;
-
-        switch (direction) {
-            case "LEFT" -> newX -= 2;
-            case "RIGHT" -> newX += 2;
-            case "UP" -> newY -= 2;
-            case "DOWN" -> newY += 2;
-            default -> {
-                System.out.println("INVALID ACTION");
-                return;
-            }
-        }
+    public void move(Figure figure, Direction direction) {
+        int newX = figure.x + dx[direction.ordinal()];
+        int newY = figure.y + dy[direction.ordinal()];
 
         Board board = Board.getInstance();
         if (!board.isInField(newX, newY)) {
-            System.out.println("INVALID ACTION");
+            board.getEvents().invalid();
             return;
         }
 
@@ -308,529 +351,3233 @@ class AttackingStrategy implements Strategy {
         BoardComponent component = board.getComponent(newX, newY);
         if (component == null) {
             board.moveFigure(figure, newX, newY);
-            System.out.println(figure.team + " MOVED TO " + newY + " " + newX);
+            board.getEvents().moved(figure.team, newY, newX);
         } else if (component instanceof Figure enemy) {
-            if (((figure.team == Team.GREEN || figure.team == Team.GREENCLONE) && (enemy.team == Team.GREENCLONE || enemy.team == Team.GREEN)) ||
-                    ((figure.team == Team.RED || figure.team == Team.REDCLONE) && (enemy.team == Team.REDCLONE || enemy.team == Team.RED))) {
-                System.out.println("INVALID ACTION");
+            if (figure.team.isAlly(enemy.team)) {
+                board.getEvents().invalid();
             } else {
                 enemy.setAlive(false);
                 board.clearComponent(newX, newY);
                 board.moveFigure(figure, newX, newY);
-                System.out.println(figure.team + " MOVED TO " + newY + " " + newX + " AND KILLED " + enemy.team);
+                board.getEvents().killed(figure.team, newY, newX, enemy.team);
             }
         } else if (component instanceof Coin coin) {
             board.getTeamScore().addScore(figure.team, coin.getValue());
             board.clearComponent(newX, newY);
             board.moveFigure(figure, newX, newY);
-            System.out.println(figure.team + " MOVED TO " + newY + " " + newX + " AND COLLECTED " + coin.getValue());
+            board.getEvents().collected(figure.team, newY, newX, coin.getValue());
         }
     }
 }
 
+/**
+ * Strategy that moves a figure by one cell
+ */
+class NormalStrategy extends StepStrategy {
+    static final NormalStrategy INSTANCE = new NormalStrategy();
+
+    NormalStrategy() {
+        super(1);
+    }
+}
 
 /**
- * Represents a red figure in the game
+ * Strategy that moves a figure by two cells
  */
-class RedFigure extends Figure {
+class AttackingStrategy extends StepStrategy {
+    static final AttackingStrategy INSTANCE = new AttackingStrategy();
+
+    AttackingStrategy() {
+        super(2);
+    }
+}
+
+
+/**
+ * Reads the action script token by token straight from bytes.
+ * Integers are decoded in place and words are matched against the fixed vocabulary,
+ * so no Strings are created while reading
+ */
+class ScriptReader {
+    private static final int BUFFER_SIZE = 1 << 16;
+    private static final int MAX_TOKEN = 16;
+    private static final Team[] TEAMS = Team.values();
+    private static final Action[] ACTIONS = Action.values();
+    private static final byte[][] TEAM_WORDS = words(TEAMS);
+    private static final byte[][] ACTION_WORDS = words(ACTIONS);
+
+    private final InputStream in;
+    private final ByteBuffer buffer;
+    private final byte[] token = new byte[MAX_TOKEN];
+
     /**
-     * Constructs a RedFigure with specified coordinates
+     * Constructs a reader over a stream, refilling an internal buffer as it goes
      *
-     * @param x the x-coordinate of the figure
-     * @param y the y-coordinate of the figure
+     * @param in the stream to read from
      */
-    RedFigure(int x, int y) {
-        super(x, y);
-        this.team = Team.RED;
+    ScriptReader(InputStream in) {
+        this.in = in;
+        this.buffer = ByteBuffer.allocate(BUFFER_SIZE).flip();
+    }
+
+    private ScriptReader(ByteBuffer mapped) {
+        this.in = null;
+        this.buffer = mapped;
     }
 
     /**
-     * Clones the figure on the board if certain conditions are met
+     * Creates a reader over a memory-mapped file
      *
-     * @param board the game board
-     * @return the cloned figure or null if cloning is not possible
+     * @param path the script file
+     * @return the reader
+     * @throws IOException if the file cannot be mapped
      */
-    @Override
-    public RedCloneFigure cloneFigure(Board board) {
-        if (x == y || !hasClone) {
-            System.out.println("INVALID ACTION");
-            return null;
-        }
-        int newX = y;
-        int newY = x;
-
-        if (board.getComponent(newX, newY) != null) {
-            System.out.println("INVALID ACTION");
-            return null;
+    static ScriptReader map(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                return new ScriptReader(Files.newInputStream(path));
+            }
+            return new ScriptReader(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
         }
-
-        RedCloneFigure clone = new RedCloneFigure(newX, newY);
-        clone.setStrategy(new NormalStrategy());
-        this.setClone(false);
-        board.addComponent(clone);
-        System.out.println(team + " CLONED TO " + newY + " " + newX);
-        return clone;
     }
 
     /**
-     * Moves the figure in the specified direction
+     * Reads the next token as a decimal integer
      *
-     * @param direction the direction to move
+     * @return the integer
+     * @throws NoSuchElementException if the input is exhausted
+     * @throws InputMismatchException if the token is not an integer
      */
-    @Override
-    public void move(String direction) {
-        strategy.move(this, direction);
+    int nextInt() throws IOException {
+        int b = skipWhitespace();
+        boolean negative = b == '-';
+        if (negative || b == '+') {
+            b = read();
+        }
+        if (b < '0' || b > '9') {
+            throw new InputMismatchException();
+        }
+        long value = 0;
+        while (b >= '0' && b <= '9') {
+            value = value * 10 + (b - '0');
+            if (value > (long) Integer.MAX_VALUE + 1) {
+                throw new InputMismatchException();
+            }
+            b = read();
+        }
+        if (b > ' ') {
+            throw new InputMismatchException();
+        }
+        value = negative ? -value : value;
+        if (value > Integer.MAX_VALUE) {
+            throw new InputMismatchException();
+        }
+        return (int) value;
     }
 
     /**
-     * Changes the style of the figure between normal and attacking
+     * Reads the next token as a figure name
+     *
+     * @return the team, or null if the token is not a figure name
      */
-    @Override
-    public void changeStyle() {
-        if (this.getState().equals("NORMAL")) {
-            this.state = "ATTACKING";
-            setStrategy(new AttackingStrategy());
-        } else {
-            this.state = "NORMAL";
-            setStrategy(new NormalStrategy());
-        }
-        System.out.println(team + " CHANGED STYLE TO " + state);
+    Team nextTeam() throws IOException {
+        int index = match(TEAM_WORDS, readToken());
+        return index < 0 ? null : TEAMS[index];
     }
-}
-
-/**
- * Represents a green figure in the game
- */
-class GreenFigure extends Figure {
 
     /**
-     * Constructs a GreenFigure
+     * Reads the next token as an action
      *
-     * @param x the x-coordinate of the figure
-     * @param y the y-coordinate of the figure
+     * @return the action, or null if the token is not an action
      */
-    public GreenFigure(int x, int y) {
-        super(x, y);
-        this.team = Team.GREEN;
+    Action nextAction() throws IOException {
+        int index = match(ACTION_WORDS, readToken());
+        return index < 0 ? null : ACTIONS[index];
     }
 
     /**
-     * Clones the figure on the board if certain conditions are met
+     * Copies the next token into the token buffer
      *
-     * @param board the game board
-     * @return the cloned figure or null if cloning is not possible
+     * @return the token length, or -1 if it is too long to be a known word
      */
-    @Override
-    public GreenCloneFigure cloneFigure(Board board) {
-        if (x == y || !hasClone) {
-            System.out.println("INVALID ACTION");
-            return null;
+    private int readToken() throws IOException {
+        int b = skipWhitespace();
+        int length = 0;
+        while (b > ' ') {
+            if (length < MAX_TOKEN) {
+                token[length] = (byte) b;
+            }
+            length++;
+            b = read();
         }
-        int newX = y;
-        int newY = x;
+        return length <= MAX_TOKEN ? length : -1;
+    }
 
-        if (board.getComponent(newX, newY) != null) {
-            System.out.println("INVALID ACTION");
-            return null;
+    private int match(byte[][] words, int length) {
+        for (int i = 0; i < words.length; i++) {
+            if (words[i].length == length && Arrays.equals(words[i], 0, length, token, 0, length)) {
+                return i;
+            }
         }
-        GreenCloneFigure clone = new GreenCloneFigure(newX, newY);
-        clone.setStrategy(new NormalStrategy());
-        this.setClone(false);
-        board.addComponent(clone);
-        System.out.println(team + " CLONED TO " + newY + " " + newX);
-        return clone;
+        return -1;
     }
 
-    /**
-     * Moves the figure in the specified direction
-     *
-     * @param direction the direction to move
-     */
-    @Override
-    public void move(String direction) {
-        strategy.move(this, direction);
+    private int skipWhitespace() throws IOException {
+        int b = read();
+        while (b >= 0 && b <= ' ') {
+            b = read();
+        }
+        if (b < 0) {
+            throw new NoSuchElementException();
+        }
+        return b;
     }
 
     /**
-     * Changes the style of the figure between normal and attacking
+     * @return the next byte, or -1 at the end of input
      */
-    @Override
-    public void changeStyle() {
-        if (this.getState().equals("NORMAL")) {
-            this.state = "ATTACKING";
-            setStrategy(new AttackingStrategy());
-        } else {
-            this.state = "NORMAL";
-            setStrategy(new NormalStrategy());
+    private int read() throws IOException {
+        if (!buffer.hasRemaining()) {
+            if (in == null) {
+                return -1;
+            }
+            int count = in.read(buffer.array(), 0, BUFFER_SIZE);
+            if (count <= 0) {
+                buffer.limit(0);
+                return -1;
+            }
+            buffer.position(0).limit(count);
+        }
+        return buffer.get() & 0xFF;
+    }
+
+    private static byte[][] words(Enum<?>[] values) {
+        byte[][] words = new byte[values.length][];
+        for (int i = 0; i < values.length; i++) {
+            words[i] = values[i].name().getBytes(StandardCharsets.US_ASCII);
         }
-        System.out.println(team + " CHANGED STYLE TO " + state);
+        return words;
     }
 }
 
 /**
- * Represents a green clone figure
+ * Interface for receiving the outcome of every action in the game.
+ * Strategies, figures and the board report what happened here instead of printing it
  */
-class GreenCloneFigure extends Figure {
+interface GameEvents {
+    /**
+     * Reports a move to an empty cell
+     *
+     * @param team the team of the moved figure
+     * @param y    new y-coordinate
+     * @param x    new x-coordinate
+     */
+    void moved(Team team, int y, int x);
 
     /**
-     * Constructs a GreenCloneFigure
+     * Reports a move that killed an enemy figure
      *
-     * @param x the x-coordinate of the figure
-     * @param y the y-coordinate of the figure
+     * @param team  the team of the moved figure
+     * @param y     new y-coordinate
+     * @param x     new x-coordinate
+     * @param enemy the team of the killed figure
      */
-    public GreenCloneFigure(int x, int y) {
-        super(x, y);
-        this.hasClone = false;
-        this.state = "NORMAL";
-        this.team = Team.GREENCLONE;
-    }
+    void killed(Team team, int y, int x, Team enemy);
 
     /**
-     * Cloning is not allowed for GreenCloneFigure
+     * Reports a move that collected a coin
      *
-     * @param board the game board
-     * @return always returns null
+     * @param team  the team of the moved figure
+     * @param y     new y-coordinate
+     * @param x     new x-coordinate
+     * @param value the value of the coin
      */
-    @Override
-    public Figure cloneFigure(Board board) {
-        System.out.println("INVALID ACTION");
-        return null;
-    }
+    void collected(Team team, int y, int x, int value);
 
     /**
-     * Moves the figure in the specified direction
+     * Reports a clone placed on the board
      *
-     * @param direction the direction to move
+     * @param team the team of the original figure
+     * @param y    y-coordinate of the clone
+     * @param x    x-coordinate of the clone
      */
-    @Override
-    public void move(String direction) {
-        strategy.move(this, direction);
-    }
+    void cloned(Team team, int y, int x);
 
     /**
-     * Changes the style of the figure between normal and attacking
+     * Reports a change of style
+     *
+     * @param team  the team of the figure
+     * @param state the new state, NORMAL or ATTACKING
+     */
+    void styleChanged(Team team, String state);
+
+    /**
+     * Reports an action that could not be performed
+     */
+    void invalid();
+
+    /**
+     * Reports the final score of the match
+     *
+     * @param greenScore the green team's score
+     * @param redScore   the red team's score
+     */
+    void finished(int greenScore, int redScore);
+
+    /**
+     * Writes out everything reported so far
+     */
+    void flush();
+}
+
+/**
+ * Writes game events as the text lines of the original game log.
+ * Lines are encoded as ASCII into one reused buffer that is written out only when full or flushed
+ */
+class TextEventSink implements GameEvents {
+    private static final int BUFFER_SIZE = 1 << 16;
+    private static final int MAX_LINE = 128;
+    private static final byte[][] TEAM_NAMES = new byte[Team.values().length][];
+    private static final byte[] MOVED_TO = ascii(" MOVED TO ");
+    private static final byte[] AND_KILLED = ascii(" AND KILLED ");
+    private static final byte[] AND_COLLECTED = ascii(" AND COLLECTED ");
+    private static final byte[] CLONED_TO = ascii(" CLONED TO ");
+    private static final byte[] CHANGED_STYLE_TO = ascii(" CHANGED STYLE TO ");
+    private static final byte[] INVALID_ACTION = ascii("INVALID ACTION");
+    private static final byte[] GREEN_WINS = ascii("GREEN TEAM WINS. SCORE ");
+    private static final byte[] RED_WINS = ascii("RED TEAM WINS. SCORE ");
+    private static final byte[] TIE = ascii("TIE. SCORE ");
+    private static final byte[] NEW_LINE = ascii(System.lineSeparator());
+
+    static {
+        for (Team team : Team.values()) {
+            TEAM_NAMES[team.ordinal()] = ascii(team.name());
+        }
+    }
+
+    private final OutputStream out;
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+    private int length;
+
+    /**
+     * Constructs a sink writing to the given stream
+     *
+     * @param out the stream to write lines to
+     */
+    TextEventSink(OutputStream out) {
+        this.out = out;
+    }
+
+    @Override
+    public void moved(Team team, int y, int x) {
+        movedTo(team, y, x);
+        append(NEW_LINE);
+    }
+
+    @Override
+    public void killed(Team team, int y, int x, Team enemy) {
+        movedTo(team, y, x);
+        append(AND_KILLED);
+        append(TEAM_NAMES[enemy.ordinal()]);
+        append(NEW_LINE);
+    }
+
+    @Override
+    public void collected(Team team, int y, int x, int value) {
+        movedTo(team, y, x);
+        append(AND_COLLECTED);
+        append(value);
+        append(NEW_LINE);
+    }
+
+    @Override
+    public void cloned(Team team, int y, int x) {
+        reserveLine();
+        append(TEAM_NAMES[team.ordinal()]);
+        append(CLONED_TO);
+        append(y);
+        buffer[length++] = ' ';
+        append(x);
+        append(NEW_LINE);
+    }
+
+    @Override
+    public void styleChanged(Team team, String state) {
+        reserveLine();
+        append(TEAM_NAMES[team.ordinal()]);
+        append(CHANGED_STYLE_TO);
+        for (int i = 0; i < state.length(); i++) {
+            buffer[length++] = (byte) state.charAt(i);
+        }
+        append(NEW_LINE);
+    }
+
+    @Override
+    public void invalid() {
+        reserveLine();
+        append(INVALID_ACTION);
+        append(NEW_LINE);
+    }
+
+    /**
+     * Writes the result line. It always ends with '\n', as the printf it replaces did
+     */
+    @Override
+    public void finished(int greenScore, int redScore) {
+        reserveLine();
+        switch (Outcome.of(greenScore, redScore)) {
+            case GREEN_WINS -> append(GREEN_WINS);
+            case RED_WINS -> append(RED_WINS);
+            case TIE -> append(TIE);
+        }
+        append(greenScore);
+        buffer[length++] = ' ';
+        append(redScore);
+        buffer[length++] = '\n';
+    }
+
+    @Override
+    public void flush() {
+        try {
+            out.write(buffer, 0, length);
+            out.flush();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        length = 0;
+    }
+
+    private void movedTo(Team team, int y, int x) {
+        reserveLine();
+        append(TEAM_NAMES[team.ordinal()]);
+        append(MOVED_TO);
+        append(y);
+        buffer[length++] = ' ';
+        append(x);
+    }
+
+    /**
+     * Makes sure the longest possible line fits into the buffer
+     */
+    private void reserveLine() {
+        if (length > BUFFER_SIZE - MAX_LINE) {
+            flush();
+        }
+    }
+
+    private void append(byte[] bytes) {
+        System.arraycopy(bytes, 0, buffer, length, bytes.length);
+        length += bytes.length;
+    }
+
+    private void append(int value) {
+        long v = value;
+        if (v < 0) {
+            buffer[length++] = '-';
+            v = -v;
+        }
+        int end = length + digits(v);
+        for (int i = end - 1; i >= length; i--) {
+            buffer[i] = (byte) ('0' + v % 10);
+            v /= 10;
+        }
+        length = end;
+    }
+
+    private static int digits(long v) {
+        int count = 1;
+        while (v >= 10) {
+            v /= 10;
+            count++;
+        }
+        return count;
+    }
+
+    private static byte[] ascii(String text) {
+        return text.getBytes(StandardCharsets.US_ASCII);
+    }
+}
+
+/**
+ * Writes game events as fixed-size binary records for machine consumption.
+ * Every record is 16 bytes, big-endian: event type, team, second team or state, one padding byte,
+ * then y, x and value as ints. Fields an event does not have are zero
+ */
+class BinaryEventSink implements GameEvents {
+    static final int RECORD_SIZE = 16;
+    static final byte MOVED = 0, KILLED = 1, COLLECTED = 2, CLONED = 3, STYLE_CHANGED = 4, INVALID = 5, FINISHED = 6;
+
+    private final OutputStream out;
+    private final ByteBuffer buffer = ByteBuffer.allocate(RECORD_SIZE << 12);
+
+    /**
+     * Constructs a sink writing to the given stream
+     *
+     * @param out the stream to write records to
+     */
+    BinaryEventSink(OutputStream out) {
+        this.out = out;
+    }
+
+    @Override
+    public void moved(Team team, int y, int x) {
+        record(MOVED, team.ordinal(), 0, y, x, 0);
+    }
+
+    @Override
+    public void killed(Team team, int y, int x, Team enemy) {
+        record(KILLED, team.ordinal(), enemy.ordinal(), y, x, 0);
+    }
+
+    @Override
+    public void collected(Team team, int y, int x, int value) {
+        record(COLLECTED, team.ordinal(), 0, y, x, value);
+    }
+
+    @Override
+    public void cloned(Team team, int y, int x) {
+        record(CLONED, team.ordinal(), 0, y, x, 0);
+    }
+
+    /**
+     * Stores the state as 1 for ATTACKING and 0 for NORMAL
+     */
+    @Override
+    public void styleChanged(Team team, String state) {
+        record(STYLE_CHANGED, team.ordinal(), "ATTACKING".equals(state) ? 1 : 0, 0, 0, 0);
+    }
+
+    @Override
+    public void invalid() {
+        record(INVALID, 0, 0, 0, 0, 0);
+    }
+
+    /**
+     * Stores the green score as y and the red score as x
+     */
+    @Override
+    public void finished(int greenScore, int redScore) {
+        record(FINISHED, 0, 0, greenScore, redScore, 0);
+    }
+
+    @Override
+    public void flush() {
+        try {
+            out.write(buffer.array(), 0, buffer.position());
+            out.flush();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        buffer.clear();
+    }
+
+    private void record(byte type, int first, int second, int y, int x, int value) {
+        if (buffer.remaining() < RECORD_SIZE) {
+            flush();
+        }
+        buffer.put(type).put((byte) first).put((byte) second).put((byte) 0)
+                .putInt(y).putInt(x).putInt(value);
+    }
+}
+
+/**
+ * Discards every game event, for simulations that must not print
+ */
+class SilentEventSink implements GameEvents {
+    static final SilentEventSink INSTANCE = new SilentEventSink();
+
+    @Override
+    public void moved(Team team, int y, int x) {
+    }
+
+    @Override
+    public void killed(Team team, int y, int x, Team enemy) {
+    }
+
+    @Override
+    public void collected(Team team, int y, int x, int value) {
+    }
+
+    @Override
+    public void cloned(Team team, int y, int x) {
+    }
+
+    @Override
+    public void styleChanged(Team team, String state) {
+    }
+
+    @Override
+    public void invalid() {
+    }
+
+    @Override
+    public void finished(int greenScore, int redScore) {
+    }
+
+    @Override
+    public void flush() {
+    }
+}
+
+/**
+ * Represents a red figure in the game
+ */
+class RedFigure extends Figure {
+    /**
+     * Constructs a RedFigure with specified coordinates
+     *
+     * @param x the x-coordinate of the figure
+     * @param y the y-coordinate of the figure
+     */
+    RedFigure(int x, int y) {
+        super(x, y);
+        this.team = Team.RED;
+    }
+
+    /**
+     * Clones the figure on the board if certain conditions are met
+     *
+     * @param board the game board
+     * @return the cloned figure or null if cloning is not possible
+     */
+    @Override
+    public RedCloneFigure cloneFigure(Board board) {
+        if (x == y || !hasClone) {
+            board.getEvents().invalid();
+            return null;
+        }
+        int newX = y;
+        int newY = x;
+
+        if (board.getComponent(newX, newY) != null) {
+            board.getEvents().invalid();
+            return null;
+        }
+
+        RedCloneFigure clone = new RedCloneFigure(newX, newY);
+        clone.setStrategy(NormalStrategy.INSTANCE);
+        this.setClone(false);
+        board.addComponent(clone);
+        board.getEvents().cloned(team, newY, newX);
+        return clone;
+    }
+
+    /**
+     * Moves the figure in the specified direction
+     *
+     * @param direction the direction to move
+     */
+    @Override
+    public void move(Direction direction) {
+        strategy.move(this, direction);
+    }
+
+    /**
+     * Changes the style of the figure between normal and attacking
      */
     @Override
     public void changeStyle() {
         if (this.getState().equals("NORMAL")) {
             this.state = "ATTACKING";
-            setStrategy(new AttackingStrategy());
+            setStyleStrategy(AttackingStrategy.INSTANCE);
         } else {
             this.state = "NORMAL";
-            setStrategy(new NormalStrategy());
+            setStyleStrategy(NormalStrategy.INSTANCE);
         }
-        System.out.println(team + " CHANGED STYLE TO " + state);
+        Board.getInstance().styleChanged(this);
+        Board.getInstance().getEvents().styleChanged(team, state);
     }
 }
 
 /**
- * Represents a red clone figure in the game
+ * Represents a green figure in the game
  */
-class RedCloneFigure extends Figure {
+class GreenFigure extends Figure {
+
+    /**
+     * Constructs a GreenFigure
+     *
+     * @param x the x-coordinate of the figure
+     * @param y the y-coordinate of the figure
+     */
+    public GreenFigure(int x, int y) {
+        super(x, y);
+        this.team = Team.GREEN;
+    }
+
+    /**
+     * Clones the figure on the board if certain conditions are met
+     *
+     * @param board the game board
+     * @return the cloned figure or null if cloning is not possible
+     */
+    @Override
+    public GreenCloneFigure cloneFigure(Board board) {
+        if (x == y || !hasClone) {
+            board.getEvents().invalid();
+            return null;
+        }
+        int newX = y;
+        int newY = x;
+
+        if (board.getComponent(newX, newY) != null) {
+            board.getEvents().invalid();
+            return null;
+        }
+        GreenCloneFigure clone = new GreenCloneFigure(newX, newY);
+        clone.setStrategy(NormalStrategy.INSTANCE);
+        this.setClone(false);
+        board.addComponent(clone);
+        board.getEvents().cloned(team, newY, newX);
+        return clone;
+    }
+
+    /**
+     * Moves the figure in the specified direction
+     *
+     * @param direction the direction to move
+     */
+    @Override
+    public void move(Direction direction) {
+        strategy.move(this, direction);
+    }
+
+    /**
+     * Changes the style of the figure between normal and attacking
+     */
+    @Override
+    public void changeStyle() {
+        if (this.getState().equals("NORMAL")) {
+            this.state = "ATTACKING";
+            setStyleStrategy(AttackingStrategy.INSTANCE);
+        } else {
+            this.state = "NORMAL";
+            setStyleStrategy(NormalStrategy.INSTANCE);
+        }
+        Board.getInstance().styleChanged(this);
+        Board.getInstance().getEvents().styleChanged(team, state);
+    }
+}
+
+/**
+ * Represents a green clone figure
+ */
+class GreenCloneFigure extends Figure {
+
+    /**
+     * Constructs a GreenCloneFigure
+     *
+     * @param x the x-coordinate of the figure
+     * @param y the y-coordinate of the figure
+     */
+    public GreenCloneFigure(int x, int y) {
+        super(x, y);
+        this.hasClone = false;
+        this.state = "NORMAL";
+        this.team = Team.GREENCLONE;
+    }
+
+    /**
+     * Cloning is not allowed for GreenCloneFigure
+     *
+     * @param board the game board
+     * @return always returns null
+     */
+    @Override
+    public Figure cloneFigure(Board board) {
+        board.getEvents().invalid();
+        return null;
+    }
+
+    /**
+     * Moves the figure in the specified direction
+     *
+     * @param direction the direction to move
+     */
+    @Override
+    public void move(Direction direction) {
+        strategy.move(this, direction);
+    }
+
+    /**
+     * Changes the style of the figure between normal and attacking
+     */
+    @Override
+    public void changeStyle() {
+        if (this.getState().equals("NORMAL")) {
+            this.state = "ATTACKING";
+            setStyleStrategy(AttackingStrategy.INSTANCE);
+        } else {
+            this.state = "NORMAL";
+            setStyleStrategy(NormalStrategy.INSTANCE);
+        }
+        Board.getInstance().styleChanged(this);
+        Board.getInstance().getEvents().styleChanged(team, state);
+    }
+}
+
+/**
+ * Represents a red clone figure in the game
+ */
+class RedCloneFigure extends Figure {
+
+    /**
+     * Constructs a RedCloneFigure
+     *
+     * @param x the x-coordinate of the figure
+     * @param y the y-coordinate of the figure
+     */
+    public RedCloneFigure(int x, int y) {
+        super(x, y);
+        this.hasClone = false;
+        this.state = "NORMAL";
+        this.team = Team.REDCLONE;
+    }
+
+    /**
+     * Cloning is not allowed for RedCloneFigure
+     *
+     * @param board the game board
+     * @return always returns null
+     */
+    @Override
+    public Figure cloneFigure(Board board) {
+        board.getEvents().invalid();
+        return null;
+    }
+
+    /**
+     * Moves the figure in the specified direction
+     *
+     * @param direction the direction to move
+     */
+    @Override
+    public void move(Direction direction) {
+        strategy.move(this, direction);
+    }
+
+    /**
+     * Changes the style of the figure between normal and attacking
+     */
+    @Override
+    public void changeStyle() {
+        if (this.getState().equals("NORMAL")) {
+            this.state = "ATTACKING";
+            setStyleStrategy(AttackingStrategy.INSTANCE);
+        } else {
+            this.state = "NORMAL";
+            setStyleStrategy(NormalStrategy.INSTANCE);
+        }
+        Board.getInstance().styleChanged(this);
+        Board.getInstance().getEvents().styleChanged(team, state);
+    }
+}
+
+/**
+ * Represents coins in the game
+ */
+class Coin implements BoardComponent {
+    private final int x, y, value;
+    private int index = -1;
+
+    public Coin(int x, int y, int value) {
+        this.x = x;
+        this.y = y;
+        this.value = value;
+    }
+
+    @Override
+    public int getX() {
+        return x;
+    }
+
+    @Override
+    public int getY() {
+        return y;
+    }
+
+    public int getValue() {
+        return value;
+    }
+
+    /**
+     * @return the position of the coin in the board's placement order, or -1 if it is not placed
+     */
+    int getIndex() {
+        return index;
+    }
+
+    void setIndex(int index) {
+        this.index = index;
+    }
+}
+
+/**
+ * Represents a cell on the game board
+ */
+class Cell {
+    BoardComponent content;
+}
+
+/**
+ * Represents the game board, implementing the Singleton and Composite patterns
+ */
+class Board {
+    private static Board instance;
+    private final int width, height;
+    private final Cell[][] grid;
+    private final TeamScore teamScore = new TeamScore();
+    private final Figure[] figures = new Figure[Team.values().length];
+    private final List<Coin> coins = new ArrayList<>();
+    private final CoinIndex coinIndex;
+    private final BitBoard bitBoard;
+    private CoinSet collected = CoinSet.EMPTY;
+    private long hash;
+    private GameEvents events = new TextEventSink(System.out);
+
+    /**
+     * Constructs a Board with specified width and height
+     *
+     * @param width  the width of the board
+     * @param height the height of the board
+     */
+    private Board(int width, int height) {
+        this.width = width;
+        this.height = height;
+        this.grid = new Cell[height + 1][width + 1];
+        this.coinIndex = new CoinIndex(width, height);
+        this.bitBoard = new BitBoard(width, height);
+        for (int i = 0; i <= height; i++) {
+            for (int j = 0; j <= width; j++) {
+                grid[i][j] = new Cell();
+            }
+        }
+    }
+
+    /**
+     * Represents the Singleton pattern
+     *
+     * @return the singleton instance of the Board
+     */
+    public static Board getInstance() {
+        return instance;
+    }
+
+    /**
+     * Returns the singleton instance of the Board, creating it if necessary
+     *
+     * @param width  the width of the board
+     * @param height the height of the board
+     * @return the singleton instance of the Board
+     */
+    public static Board getInstance(int width, int height) {
+        if (instance == null) {
+            instance = new Board(width, height);
+        }
+        return instance;
+    }
+
+    /**
+     * Checks if the specified coordinates are within the bounds of the board
+     *
+     * @param x the x-coordinate
+     * @param y the y-coordinate
+     * @return true if the coordinates are within the bounds, false otherwise
+     */
+    public boolean isInField(int x, int y) {
+        return x >= 1 && x <= width && y >= 1 && y <= height;
+    }
+
+    /**
+     * @return the team score
+     */
+    public TeamScore getTeamScore() {
+        return teamScore;
+    }
+
+    /**
+     * Returns the Zobrist hash of the position: figures with their cells and styles,
+     * used clones and the value of every coin on the board. It is kept up to date on every change
+     *
+     * @return the hash
+     */
+    public long getHash() {
+        return hash;
+    }
+
+    /**
+     * @return the spatial index of the coins still on the board
+     */
+    public CoinIndex getCoinIndex() {
+        return coinIndex;
+    }
+
+    /**
+     * @return the receiver of game events
+     */
+    public GameEvents getEvents() {
+        return events;
+    }
+
+    /**
+     * Replaces the receiver of game events
+     *
+     * @param events the new receiver
+     */
+    public void setEvents(GameEvents events) {
+        this.events = events;
+    }
+
+    /**
+     * Adds a component to the board at its coordinates.
+     * This demonstrates the Composite pattern, where the Board can contain both Figures and Coins
+     *
+     * @param component the component to add (Figure or Coin)
+     */
+    public void addComponent(BoardComponent component) {
+        if (component instanceof Figure figure) {
+            figures[figure.team.ordinal()] = figure;
+            if (figure.getState().equals("ATTACKING")) {
+                hash ^= Zobrist.style(figure.team);
+            }
+            if (figure.team == Team.GREENCLONE || figure.team == Team.REDCLONE) {
+                hash ^= Zobrist.cloneUsed(Team.values()[figure.team.ordinal() - 2]);
+            }
+        } else if (component instanceof Coin coin && coin.getIndex() < 0) {
+            coin.setIndex(coins.size());
+            coins.add(coin);
+            coinIndex.add(coin.getIndex(), coin.getX(), coin.getY());
+        }
+        place(component.getX(), component.getY(), component);
+    }
+
+    /**
+     * Adds a figure to the board at its coordinates
+     *
+     * @param figure the figure to add
+     */
+    public void addFigure(Figure figure) {
+        addComponent(figure);
+    }
+
+    /**
+     * Adds a coin to the board at its coordinates
+     *
+     * @param coin the coin to add
+     */
+    public void addCoin(Coin coin) {
+        addComponent(coin);
+    }
+
+    /**
+     * Clears the content of the cell at the specified coordinates
+     *
+     * @param x the x-coordinate
+     * @param y the y-coordinate
+     */
+    public void clearComponent(int x, int y) {
+        if (!isInField(x, y)) {
+            events.invalid();
+            return;
+        }
+        if (grid[y][x].content instanceof Coin coin) {
+            collected = collected.add(coin.getIndex());
+            coinIndex.remove(coin.getIndex());
+        }
+        place(x, y, null);
+    }
+
+    /**
+     * Records a change of style of a figure in the hash
+     *
+     * @param figure the figure that changed style
+     */
+    public void styleChanged(Figure figure) {
+        hash ^= Zobrist.style(figure.team);
+    }
+
+    /**
+     * Moves a figure to new coordinates on the board
+     *
+     * @param figure the figure to move
+     * @param newX   new x-coordinate
+     * @param newY   new y-coordinate
+     */
+    public void moveFigure(Figure figure, int newX, int newY) {
+        if (!isInField(newX, newY)) {
+            events.invalid();
+            return;
+        }
+        if (isInField(figure.getX(), figure.getY())) {
+            clearComponent(figure.getX(), figure.getY());
+        }
+
+        figure.x = newX;
+        figure.y = newY;
+        place(newX, newY, figure);
+    }
+
+    /**
+     * @param index the coin index
+     * @return the coin added with that index, whether or not it was collected since
+     */
+    Coin getCoin(int index) {
+        return coins.get(index);
+    }
+
+    /**
+     * Returns the component at the specified coordinates
+     *
+     * @param x the x-coordinate
+     * @param y the y-coordinate
+     * @return the component at the cell, or null if the coordinates are out of bounds or the cell is empty
+     */
+    public BoardComponent getComponent(int x, int y) {
+        if (!isInField(x, y)) {
+            events.invalid();
+            return null;
+        }
+        return grid[y][x].content;
+    }
+
+    /**
+     * Finds a figure on the board by its team
+     *
+     * @param team the team of the figure
+     * @return the figure, or null if not found
+     */
+    public Figure findFigureByTeam(Team team) {
+        Figure figure = figures[team.ordinal()];
+        return figure != null && figure.isAlive() ? figure : null;
+    }
+
+    /**
+     * Puts a component into a cell, keeping the hash and the bitboards in step with the grid
+     *
+     * @param x         the x-coordinate
+     * @param y         the y-coordinate
+     * @param component the new content, or null to empty the cell
+     */
+    private void place(int x, int y, BoardComponent component) {
+        Cell cell = grid[y][x];
+        int index = (y - 1) * width + x - 1;
+        hash ^= contentKey(cell.content, x, y) ^ contentKey(component, x, y);
+        bitBoard.clear(index);
+        if (component instanceof Figure figure) {
+            BitBoard.set(figure.team.isGreen() ? bitBoard.green : bitBoard.red, index);
+        } else if (component instanceof Coin) {
+            BitBoard.set(bitBoard.coins, index);
+        }
+        cell.content = component;
+    }
+
+    /**
+     * Computes the cells the figures of one side can move into, each with the step of its style
+     *
+     * @param green true for the green side, false for the red side
+     * @return the cells as a bitset in the layout of {@link BitBoard}
+     */
+    public long[] reachableCells(boolean green) {
+        long[] normal = bitBoard.empty();
+        long[] attacking = bitBoard.empty();
+        for (Figure figure : figures) {
+            if (figure != null && figure.isAlive() && figure.team.isGreen() == green) {
+                BitBoard.set(figure.getState().equals("ATTACKING") ? attacking : normal, (figure.y - 1) * width + figure.x - 1);
+            }
+        }
+        long[] own = green ? bitBoard.green : bitBoard.red;
+        long[] cells = bitBoard.empty();
+        bitBoard.addReachable(normal, 1, own, cells);
+        bitBoard.addReachable(attacking, 2, own, cells);
+        return cells;
+    }
+
+    /**
+     * Computes the cells the enemies of a side could move into on their next action
+     *
+     * @param green true if the green side is under attack
+     * @return the cells as a bitset in the layout of {@link BitBoard}
+     */
+    public long[] attackedCells(boolean green) {
+        return reachableCells(!green);
+    }
+
+    /**
+     * @return the bitboards of green pieces, red pieces and coins
+     */
+    public BitBoard getBitBoard() {
+        return bitBoard;
+    }
+
+    /**
+     * @return the hash key of a cell's content, or 0 for an empty cell
+     */
+    private long contentKey(BoardComponent component, int x, int y) {
+        int cell = (y - 1) * width + x - 1;
+        if (component instanceof Figure figure) {
+            return Zobrist.figure(figure.team, cell);
+        } else if (component instanceof Coin coin) {
+            return Zobrist.coin(cell, coin.getValue());
+        }
+        return 0;
+    }
+
+    /**
+     * Captures the state of the match. This represents the Memento pattern, with the Board as originator
+     *
+     * @return the snapshot of the current state
+     */
+    public BoardSnapshot save() {
+        int[] figureState = new int[figures.length * BoardSnapshot.FIGURE_FIELDS];
+        for (int i = 0; i < figures.length; i++) {
+            Figure figure = figures[i];
+            if (figure != null) {
+                int base = i * BoardSnapshot.FIGURE_FIELDS;
+                figureState[base] = BoardSnapshot.flags(figure);
+                figureState[base + 1] = figure.x;
+                figureState[base + 2] = figure.y;
+            }
+        }
+        return new BoardSnapshot(width, coins.size(), collected, hash,
+                teamScore.getGreenScore(), teamScore.getRedScore(), figureState);
+    }
+
+    /**
+     * Restores a state captured by {@link #save()}. Only coins that differ between the current state
+     * and the snapshot are touched, so restoring a nearby position is cheap
+     *
+     * @param snapshot the snapshot to restore
+     * @throws IllegalArgumentException if the snapshot was taken on a board with other coins or size
+     */
+    public void restore(BoardSnapshot snapshot) {
+        if (snapshot.size != width || snapshot.coinCount != coins.size()) {
+            throw new IllegalArgumentException("Snapshot does not match the board");
+        }
+        for (Figure figure : figures) {
+            if (figure != null && figure.isAlive() && grid[figure.y][figure.x].content == figure) {
+                place(figure.x, figure.y, null);
+            }
+        }
+
+        CoinSet target = snapshot.collected;
+        collected.diff(target, index -> {
+            Coin coin = coins.get(index);
+            if (target.contains(index)) {
+                place(coin.getX(), coin.getY(), null);
+                coinIndex.remove(index);
+            } else {
+                place(coin.getX(), coin.getY(), coin);
+                coinIndex.add(index, coin.getX(), coin.getY());
+            }
+        });
+        collected = target;
+
+        Team[] teams = Team.values();
+        for (int i = 0; i < figures.length; i++) {
+            int base = i * BoardSnapshot.FIGURE_FIELDS;
+            int flags = snapshot.figures[base];
+            if ((flags & BoardSnapshot.PRESENT) == 0) {
+                figures[i] = null;
+                continue;
+            }
+            Figure figure = figures[i];
+            if (figure == null) {
+                figure = FigureFactory.create(teams[i].name(), 0, 0);
+                figures[i] = figure;
+            }
+            figure.x = snapshot.figures[base + 1];
+            figure.y = snapshot.figures[base + 2];
+            figure.isAlive = (flags & BoardSnapshot.ALIVE) != 0;
+            figure.hasClone = (flags & BoardSnapshot.HAS_CLONE) != 0;
+            if ((flags & BoardSnapshot.ATTACKING) != 0) {
+                figure.state = "ATTACKING";
+                figure.setStyleStrategy(AttackingStrategy.INSTANCE);
+            } else {
+                figure.state = "NORMAL";
+                figure.setStyleStrategy(NormalStrategy.INSTANCE);
+            }
+            if (figure.isAlive) {
+                place(figure.x, figure.y, figure);
+            }
+        }
+        teamScore.setScores(snapshot.greenScore, snapshot.redScore);
+        hash = snapshot.boardHash;
+    }
+}
+
+/**
+ * Class for creating figures, using pattern factory
+ */
+class FigureFactory {
+    /**
+     * Creates a figure based on its name and coordinates
+     *
+     * @param name the name of the figure
+     * @param x    the x-coordinate
+     * @param y    the y-coordinate
+     * @return the created figure
+     * @throws IllegalArgumentException if the name is invalid
+     */
+    public static Figure create(String name, int x, int y) {
+        return switch (name) {
+            case "GREEN" -> new GreenFigure(x, y);
+            case "RED" -> new RedFigure(x, y);
+            case "GREENCLONE" -> new GreenCloneFigure(x, y);
+            case "REDCLONE" -> new RedCloneFigure(x, y);
+            default -> throw new IllegalArgumentException("Invalid action");
+        };
+    }
+}
+
+
+/**
+ * Represents the scores of the teams
+ */
+class TeamScore {
+    private int greenScore = 0;
+    private int redScore = 0;
+
+    /**
+     * Overwrites both scores, used when a saved state is restored
+     *
+     * @param greenScore the green team's score
+     * @param redScore   the red team's score
+     */
+    void setScores(int greenScore, int redScore) {
+        this.greenScore = greenScore;
+        this.redScore = redScore;
+    }
+
+    public void addScore(Team team, int value) {
+        switch (team) {
+            case GREEN, GREENCLONE -> greenScore += value;
+            case RED, REDCLONE -> redScore += value;
+        }
+    }
+
+    /**
+     * Returns the score of the green team
+     *
+     * @return the green team's score
+     */
+    public int getGreenScore() {
+        return greenScore;
+    }
+
+    /**
+     * Returns the score of the red team
+     *
+     * @return the red team's score
+     */
+    public int getRedScore() {
+        return redScore;
+    }
+}
+
+/**
+ * Persistent bit set of coin indexes, stored as a trie of 64-bit words.
+ * Adding an index copies only the path down to its word, so every saved version
+ * shares all untouched parts with the others and comparing two versions skips shared subtrees
+ */
+final class CoinSet {
+    static final CoinSet EMPTY = new CoinSet(null, 0, 0);
+    private static final int WIDTH = 32;
+    private static final int BITS = 5;
+    private static final int MASK = WIDTH - 1;
+    private static final int LEAF_BITS = 11;
+
+    private final Object root;
+    private final int levels;
+    private final long hash;
+
+    private CoinSet(Object root, int levels, long hash) {
+        this.root = root;
+        this.levels = levels;
+        this.hash = hash;
+    }
+
+    /**
+     * @return a hash of the contents that depends only on which indexes are present
+     */
+    long hash() {
+        return hash;
+    }
+
+    /**
+     * Checks if an index is in the set
+     *
+     * @param index the coin index
+     * @return true if the index was added
+     */
+    boolean contains(int index) {
+        if (index >>> capacityBits(levels) != 0) {
+            return false;
+        }
+        Object node = root;
+        for (int level = levels; level > 0 && node != null; level--) {
+            node = ((Object[]) node)[slot(index, level)];
+        }
+        return node != null && (((long[]) node)[(index >>> 6) & MASK] & (1L << index)) != 0;
+    }
+
+    /**
+     * Returns a set that also contains the given index, leaving this one unchanged
+     *
+     * @param index the coin index
+     * @return the new set, or this set if the index is already present
+     */
+    CoinSet add(int index) {
+        if (contains(index)) {
+            return this;
+        }
+        Object grown = root;
+        int grownLevels = levels;
+        while (index >>> capacityBits(grownLevels) != 0) {
+            grown = wrap(grown);
+            grownLevels++;
+        }
+        return new CoinSet(add(grown, grownLevels, index), grownLevels, hash ^ mix(index));
+    }
+
+    /**
+     * Calls the action for every index that is in exactly one of the two sets
+     *
+     * @param other  the set to compare with
+     * @param action receives the differing indexes in ascending order
+     */
+    void diff(CoinSet other, IntConsumer action) {
+        int common = Math.max(levels, other.levels);
+        diff(rootAt(common), other.rootAt(common), common, 0, action);
+    }
+
+    /**
+     * Calls the action for every index in the set, in ascending order
+     *
+     * @param action receives the indexes
+     */
+    void forEach(IntConsumer action) {
+        EMPTY.diff(this, action);
+    }
+
+    /**
+     * @return the indexes in the set, in ascending order
+     */
+    int[] toArray() {
+        int[] count = new int[1];
+        forEach(index -> count[0]++);
+        int[] indexes = new int[count[0]];
+        count[0] = 0;
+        forEach(index -> indexes[count[0]++] = index);
+        return indexes;
+    }
+
+    private Object rootAt(int targetLevels) {
+        Object node = root;
+        for (int level = levels; level < targetLevels; level++) {
+            node = wrap(node);
+        }
+        return node;
+    }
+
+    private static Object wrap(Object node) {
+        if (node == null) {
+            return null;
+        }
+        Object[] parent = new Object[WIDTH];
+        parent[0] = node;
+        return parent;
+    }
+
+    private static Object add(Object node, int level, int index) {
+        if (level == 0) {
+            long[] words = node == null ? new long[WIDTH] : ((long[]) node).clone();
+            words[(index >>> 6) & MASK] |= 1L << index;
+            return words;
+        }
+        Object[] children = node == null ? new Object[WIDTH] : ((Object[]) node).clone();
+        int slot = slot(index, level);
+        children[slot] = add(children[slot], level - 1, index);
+        return children;
+    }
+
+    private static void diff(Object a, Object b, int level, int base, IntConsumer action) {
+        if (a == b) {
+            return;
+        }
+        if (level == 0) {
+            long[] wordsA = (long[]) a;
+            long[] wordsB = (long[]) b;
+            for (int i = 0; i < WIDTH; i++) {
+                long changed = (wordsA == null ? 0 : wordsA[i]) ^ (wordsB == null ? 0 : wordsB[i]);
+                while (changed != 0) {
+                    action.accept(base + (i << 6) + Long.numberOfTrailingZeros(changed));
+                    changed &= changed - 1;
+                }
+            }
+            return;
+        }
+        Object[] childrenA = (Object[]) a;
+        Object[] childrenB = (Object[]) b;
+        int shift = capacityBits(level - 1);
+        for (int i = 0; i < WIDTH; i++) {
+            diff(childrenA == null ? null : childrenA[i], childrenB == null ? null : childrenB[i],
+                    level - 1, base + (i << shift), action);
+        }
+    }
+
+    /**
+     * Spreads the bits of a value, the finalizer of SplitMix64
+     *
+     * @param value the value to mix
+     * @return the mixed value
+     */
+    static long mix(long value) {
+        value = (value ^ (value >>> 30)) * 0xBF58476D1CE4E5B9L;
+        value = (value ^ (value >>> 27)) * 0x94D049BB133111EBL;
+        return value ^ (value >>> 31);
+    }
+
+    private static int slot(int index, int level) {
+        return (index >>> capacityBits(level - 1)) & MASK;
+    }
+
+    /**
+     * @return the number of index bits covered by a trie with the given number of levels
+     */
+    private static int capacityBits(int levels) {
+        return Math.min(LEAF_BITS + BITS * levels, 31);
+    }
+}
+
+/**
+ * Immutable state of a match: figures, team scores and the set of collected coins.
+ * Coins are referred to by their placement order, so a snapshot only fits the board it was taken on.
+ * The collected set is a {@link CoinSet} shared with every other snapshot of the same game,
+ * so a snapshot per turn costs a few small arrays rather than a copy of the board
+ */
+final class BoardSnapshot {
+    static final byte VERSION = 2;
+    static final int FIGURE_FIELDS = 3;
+    static final int PRESENT = 1, ALIVE = 2, HAS_CLONE = 4, ATTACKING = 8;
+
+    final int size;
+    final int coinCount;
+    final CoinSet collected;
+    final long boardHash;
+    final int greenScore, redScore;
+    final int[] figures;
+
+    BoardSnapshot(int size, int coinCount, CoinSet collected, long boardHash, int greenScore, int redScore, int[] figures) {
+        this.size = size;
+        this.coinCount = coinCount;
+        this.collected = collected;
+        this.boardHash = boardHash;
+        this.greenScore = greenScore;
+        this.redScore = redScore;
+        this.figures = figures;
+    }
+
+    /**
+     * Packs the flags of a figure
+     *
+     * @param figure the figure
+     * @return the flags, always including PRESENT
+     */
+    static int flags(Figure figure) {
+        int flags = PRESENT;
+        if (figure.isAlive()) {
+            flags |= ALIVE;
+        }
+        if (figure.hasClone()) {
+            flags |= HAS_CLONE;
+        }
+        if (figure.getState().equals("ATTACKING")) {
+            flags |= ATTACKING;
+        }
+        return flags;
+    }
+
+    /**
+     * Computes a hash of the whole match state, used to check that replays are deterministic
+     *
+     * @return the hash
+     */
+    long hash() {
+        long hash = collected.hash() ^ boardHash;
+        hash = CoinSet.mix(hash + greenScore);
+        hash = CoinSet.mix(hash + redScore);
+        for (int field : figures) {
+            hash = CoinSet.mix(hash + field);
+        }
+        return hash;
+    }
+
+    /**
+     * Writes the snapshot in the binary format: version, board size, coin count, board hash, scores,
+     * one flags byte and coordinates per team, then the collected coin indexes as
+     * variable-length gaps between consecutive indexes
+     *
+     * @param out the output to write to
+     * @throws IOException if writing fails
+     */
+    void writeTo(DataOutput out) throws IOException {
+        out.writeByte(VERSION);
+        out.writeInt(size);
+        out.writeInt(coinCount);
+        out.writeLong(boardHash);
+        out.writeInt(greenScore);
+        out.writeInt(redScore);
+        for (int i = 0; i < figures.length; i += FIGURE_FIELDS) {
+            out.writeByte(figures[i]);
+            out.writeInt(figures[i + 1]);
+            out.writeInt(figures[i + 2]);
+        }
+        int[] indexes = collected.toArray();
+        writeVarInt(out, indexes.length);
+        int previous = -1;
+        for (int index : indexes) {
+            writeVarInt(out, index - previous - 1);
+            previous = index;
+        }
+    }
+
+    /**
+     * Reads a snapshot written by {@link #writeTo(DataOutput)}
+     *
+     * @param in the input to read from
+     * @return the snapshot
+     * @throws IOException if reading fails or the version is not supported
+     */
+    static BoardSnapshot readFrom(DataInput in) throws IOException {
+        byte version = in.readByte();
+        if (version != VERSION) {
+            throw new IOException("Unsupported snapshot version " + version);
+        }
+        int size = in.readInt();
+        int coinCount = in.readInt();
+        long boardHash = in.readLong();
+        int greenScore = in.readInt();
+        int redScore = in.readInt();
+        int[] figures = new int[Team.values().length * FIGURE_FIELDS];
+        for (int i = 0; i < figures.length; i += FIGURE_FIELDS) {
+            figures[i] = in.readUnsignedByte();
+            figures[i + 1] = in.readInt();
+            figures[i + 2] = in.readInt();
+        }
+        CoinSet collected = CoinSet.EMPTY;
+        int count = readVarInt(in);
+        int index = -1;
+        for (int i = 0; i < count; i++) {
+            index += readVarInt(in) + 1;
+            collected = collected.add(index);
+        }
+        return new BoardSnapshot(size, coinCount, collected, boardHash, greenScore, redScore, figures);
+    }
+
+    private static void writeVarInt(DataOutput out, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    private static int readVarInt(DataInput in) throws IOException {
+        int value = 0;
+        for (int shift = 0; ; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+    }
+}
+
+/**
+ * Records the actions of a game and keeps a checkpoint every few actions, so the board
+ * can be moved to any point of the game by restoring the nearest earlier checkpoint
+ * and replaying forward. This is the caretaker of the board snapshots
+ */
+class Replay {
+    static final int DEFAULT_INTERVAL = 4096;
+    private static final int UNKNOWN_TEAM = Team.values().length;
+    private static final int UNKNOWN_ACTION = Action.values().length;
+    private static final int ACTION_CODES = UNKNOWN_ACTION + 1;
+    private static final Team[] TEAMS = Team.values();
+    private static final Action[] ACTIONS = Action.values();
+
+    private final Board board;
+    private final int interval;
+    private final List<BoardSnapshot> checkpoints = new ArrayList<>();
+    private long[] hashes = new long[16];
+    private byte[] actions = new byte[1024];
+    private int length;
+    private int position;
+
+    /**
+     * Starts recording from the current state of the board
+     *
+     * @param board    the game board
+     * @param interval number of actions between checkpoints
+     */
+    Replay(Board board, int interval) {
+        if (interval <= 0) {
+            throw new IllegalArgumentException("Checkpoint interval must be positive");
+        }
+        this.board = board;
+        this.interval = interval;
+        checkpoint();
+    }
+
+    /**
+     * Performs an action on the board and appends it to the log
+     *
+     * @param team   the team of the acting figure, or null if the name was not recognized
+     * @param action the action, or null if it was not recognized
+     * @throws IllegalStateException if the board is not at the end of the log
+     */
+    void record(Team team, Action action) {
+        if (position != length) {
+            throw new IllegalStateException("Seek to the end of the log before recording");
+        }
+        if (length == actions.length) {
+            actions = Arrays.copyOf(actions, length * 2);
+        }
+        int code = (team == null ? UNKNOWN_TEAM : team.ordinal()) * ACTION_CODES
+                + (action == null ? UNKNOWN_ACTION : action.ordinal());
+        actions[length++] = (byte) code;
+        Game.perform(board, team, action);
+        position++;
+        if (position % interval == 0) {
+            checkpoint();
+        }
+    }
+
+    /**
+     * Moves the board to the state right after the given number of actions.
+     * Events of the replayed actions are not reported
+     *
+     * @param index the number of actions to have applied, from 0 to {@link #length()}
+     */
+    void seek(int index) {
+        if (index < 0 || index > length) {
+            throw new IndexOutOfBoundsException(index);
+        }
+        int checkpoint = index / interval;
+        if (index < position || checkpoint > position / interval) {
+            board.restore(checkpoints.get(checkpoint));
+            position = checkpoint * interval;
+        }
+        replayTo(index);
+    }
+
+    /**
+     * Replays the whole log from the start and compares the state at every checkpoint
+     * with the hash recorded during the game. The board is returned to its current position
+     *
+     * @return the index of the first action at which the state differs, or -1 if the replay is deterministic
+     */
+    int verify() {
+        int current = position;
+        int mismatch = -1;
+        seek(0);
+        for (int checkpoint = 1; checkpoint < checkpoints.size(); checkpoint++) {
+            int index = checkpoint * interval;
+            replayTo(index);
+            if (board.save().hash() != hashes[checkpoint]) {
+                mismatch = index;
+                break;
+            }
+        }
+        seek(current);
+        return mismatch;
+    }
+
+    /**
+     * @return the number of actions applied to the board
+     */
+    int position() {
+        return position;
+    }
+
+    /**
+     * @return the number of recorded actions
+     */
+    int length() {
+        return length;
+    }
+
+    private void replayTo(int index) {
+        GameEvents events = board.getEvents();
+        board.setEvents(SilentEventSink.INSTANCE);
+        try {
+            while (position < index) {
+                apply(actions[position++]);
+            }
+        } finally {
+            board.setEvents(events);
+        }
+    }
+
+    private void apply(byte code) {
+        int team = code / ACTION_CODES;
+        int action = code % ACTION_CODES;
+        Game.perform(board, team == UNKNOWN_TEAM ? null : TEAMS[team], action == UNKNOWN_ACTION ? null : ACTIONS[action]);
+    }
+
+    private void checkpoint() {
+        BoardSnapshot snapshot = board.save();
+        int index = checkpoints.size();
+        if (index == hashes.length) {
+            hashes = Arrays.copyOf(hashes, index * 2);
+        }
+        hashes[index] = snapshot.hash();
+        checkpoints.add(snapshot);
+    }
+}
+
+/**
+ * Coin values of a board by cell, kept up to date by replaying only what changed since the last
+ * update: coins added to the board and the difference between the collected sets, as
+ * {@link Board#restore} does. Starting a search therefore costs the moves played, not the board area
+ */
+final class CoinGrid {
+    private Board board;
+    private int size;
+    private int[] values;
+    private CoinSet collected;
+    private int known;
+
+    /**
+     * Brings the values up to the position of a snapshot
+     *
+     * @param board    the game board
+     * @param snapshot the current position of the board
+     * @return the coin values by cell, {@link SearchState#NO_COIN} for none
+     */
+    int[] update(Board board, BoardSnapshot snapshot) {
+        if (board != this.board || size != snapshot.size || known > snapshot.coinCount) {
+            this.board = board;
+            size = snapshot.size;
+            values = new int[size * size];
+            Arrays.fill(values, SearchState.NO_COIN);
+            collected = CoinSet.EMPTY;
+            known = 0;
+        }
+        CoinSet target = snapshot.collected;
+        collected.diff(target, index -> {
+            if (index < known) {
+                set(board.getCoin(index), target.contains(index));
+            }
+        });
+        for (; known < snapshot.coinCount; known++) {
+            set(board.getCoin(known), target.contains(known));
+        }
+        collected = target;
+        return values;
+    }
+
+    private void set(Coin coin, boolean taken) {
+        values[(coin.getY() - 1) * size + coin.getX() - 1] = taken ? SearchState.NO_COIN : coin.getValue();
+    }
+}
+
+/**
+ * Compact copy of a match used by the game-tree search. Coins are read from a shared array
+ * and coins collected along the searched line are kept in a short list, so copying a state
+ * for another thread costs only a few small arrays. Moves are made and unmade in place.
+ * A playout state instead owns its coins and journals the ones it takes, so random games of
+ * any length can be played and restarted on the same rules
+ */
+final class SearchState {
+    static final int FIGURES = Team.values().length;
+    static final int NO_COIN = Integer.MIN_VALUE;
+    static final int MAX_PLY = 64;
+    private static final int FRAME = FIGURES * 3 + 3;
+
+    final int size;
+    private final int[] coins;
+    private final CoinIndex coinIndex;
+    private final int[] x = new int[FIGURES];
+    private final int[] y = new int[FIGURES];
+    private final int[] flags = new int[FIGURES];
+    private int greenScore, redScore;
+    private boolean greenToMove;
+    private long hash;
+    private final int[] collected = new int[MAX_PLY];
+    private int collectedCount;
+    private final int[] undo = new int[MAX_PLY * FRAME];
+    private final long[] undoHash = new long[MAX_PLY];
+    private int ply;
+    private BoardSnapshot root;
+    private int[] journal;
+    private int journalLength;
+
+    private SearchState(int size, int[] coins, CoinIndex coinIndex) {
+        this.size = size;
+        this.coins = coins;
+        this.coinIndex = coinIndex;
+    }
+
+    /**
+     * Builds a search state from the board
+     *
+     * @param board       the game board
+     * @param greenToMove true if the green side acts first
+     * @param grid        the coin values of the board, brought up to date and shared read-only
+     *                    with the state until the next update
+     * @return the state
+     */
+    static SearchState of(Board board, boolean greenToMove, CoinGrid grid) {
+        BoardSnapshot snapshot = board.save();
+        SearchState state = new SearchState(snapshot.size, grid.update(board, snapshot), board.getCoinIndex());
+        state.load(snapshot, greenToMove);
+        return state;
+    }
+
+    /**
+     * Builds a state for random games, which owns a copy of the coins
+     *
+     * @param snapshot the position every game starts from
+     * @param coins    the coin values by cell, {@link #NO_COIN} for none
+     * @return the state, positioned at the snapshot
+     */
+    static SearchState forPlayouts(BoardSnapshot snapshot, int[] coins) {
+        SearchState state = new SearchState(snapshot.size, coins.clone(), null);
+        state.root = snapshot;
+        state.journal = new int[64];
+        state.load(snapshot, true);
+        return state;
+    }
+
+    /**
+     * Puts a playout state back to its starting position, returning the coins it took
+     */
+    void restart() {
+        while (journalLength > 0) {
+            int value = journal[--journalLength];
+            coins[journal[--journalLength]] = value;
+        }
+        load(root, true);
+    }
+
+    private void load(BoardSnapshot snapshot, boolean greenToMove) {
+        for (int i = 0; i < FIGURES; i++) {
+            int base = i * BoardSnapshot.FIGURE_FIELDS;
+            flags[i] = snapshot.figures[base];
+            x[i] = snapshot.figures[base + 1];
+            y[i] = snapshot.figures[base + 2];
+        }
+        greenScore = snapshot.greenScore;
+        redScore = snapshot.redScore;
+        this.greenToMove = greenToMove;
+        hash = greenToMove ? snapshot.boardHash ^ Zobrist.SIDE : snapshot.boardHash;
+    }
+
+    /**
+     * @return an independent copy sharing only the read-only coin array
+     */
+    SearchState copy() {
+        SearchState copy = new SearchState(size, coins, coinIndex);
+        System.arraycopy(x, 0, copy.x, 0, FIGURES);
+        System.arraycopy(y, 0, copy.y, 0, FIGURES);
+        System.arraycopy(flags, 0, copy.flags, 0, FIGURES);
+        copy.greenScore = greenScore;
+        copy.redScore = redScore;
+        copy.greenToMove = greenToMove;
+        copy.hash = hash;
+        System.arraycopy(collected, 0, copy.collected, 0, collectedCount);
+        copy.collectedCount = collectedCount;
+        return copy;
+    }
+
+    /**
+     * Encodes a move of one figure
+     *
+     * @param figure the team ordinal of the figure
+     * @param action the action
+     * @return the move code
+     */
+    static int encode(int figure, Action action) {
+        return figure << 3 | action.ordinal();
+    }
+
+    static int figureOf(int move) {
+        return move >>> 3;
+    }
+
+    static Action actionOf(int move) {
+        return Action.values()[move & 7];
+    }
+
+    /**
+     * Writes the legal moves of the side to move into the buffer
+     *
+     * @param moves  the buffer, at least {@link #FIGURES} * 6 long
+     * @param figure the only figure allowed to move, or -1 for any figure of the side
+     * @return the number of moves
+     */
+    int generate(int[] moves, int figure) {
+        int count = 0;
+        for (int i = greenToMove ? 0 : 1; i < FIGURES; i += 2) {
+            if ((figure < 0 || i == figure) && isActive(i)) {
+                count = generate(moves, count, i);
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Writes the legal moves of one active figure, whichever side is to move
+     *
+     * @param moves  the buffer, at least 6 long
+     * @param figure the team ordinal of the figure
+     * @return the number of moves, STYLE always among them
+     */
+    int generateFor(int[] moves, int figure) {
+        return generate(moves, 0, figure);
+    }
+
+    private int generate(int[] moves, int count, int i) {
+        int step = (flags[i] & BoardSnapshot.ATTACKING) != 0 ? 2 : 1;
+        for (Direction direction : Direction.values()) {
+            int nx = x[i] + direction.dx * step;
+            int ny = y[i] + direction.dy * step;
+            if (inField(nx, ny)) {
+                int occupant = figureAt(nx, ny);
+                if (occupant < 0 || (occupant & 1) != (i & 1)) {
+                    moves[count++] = i << 3 | direction.ordinal();
+                }
+            }
+        }
+        moves[count++] = encode(i, Action.STYLE);
+        if (i < 2 && (flags[i] & BoardSnapshot.HAS_CLONE) != 0 && x[i] != y[i]
+                && figureAt(y[i], x[i]) < 0 && coinAt(y[i], x[i]) == NO_COIN) {
+            moves[count++] = encode(i, Action.COPY);
+        }
+        return count;
+    }
+
+    /**
+     * Checks if a move takes a coin or an enemy figure, used for move ordering
+     *
+     * @param move the move
+     * @return true if the move captures something
+     */
+    boolean isCapture(int move) {
+        int action = move & 7;
+        if (action >= Direction.COUNT) {
+            return false;
+        }
+        int i = figureOf(move);
+        int step = (flags[i] & BoardSnapshot.ATTACKING) != 0 ? 2 : 1;
+        Direction direction = Direction.values()[action];
+        int nx = x[i] + direction.dx * step;
+        int ny = y[i] + direction.dy * step;
+        return figureAt(nx, ny) >= 0 || coinAt(nx, ny) != NO_COIN;
+    }
+
+    /**
+     * Applies a legal move and passes the turn to the other side
+     *
+     * @param move the move
+     */
+    void make(int move) {
+        int frame = ply * FRAME;
+        for (int i = 0; i < FIGURES; i++) {
+            undo[frame++] = x[i];
+            undo[frame++] = y[i];
+            undo[frame++] = flags[i];
+        }
+        undo[frame++] = greenScore;
+        undo[frame++] = redScore;
+        undo[frame] = collectedCount;
+        undoHash[ply++] = hash;
+        play(move);
+    }
+
+    /**
+     * Applies a legal move without recording it for {@link #unmake()}, as random games do
+     *
+     * @param move the move
+     */
+    void play(int move) {
+        int i = figureOf(move);
+        int action = move & 7;
+        if (action < Direction.COUNT) {
+            int step = (flags[i] & BoardSnapshot.ATTACKING) != 0 ? 2 : 1;
+            Direction direction = Direction.values()[action];
+            int nx = x[i] + direction.dx * step;
+            int ny = y[i] + direction.dy * step;
+            int enemy = figureAt(nx, ny);
+            if (enemy >= 0) {
+                flags[enemy] &= ~BoardSnapshot.ALIVE;
+                hash ^= Zobrist.figure(enemy, cell(nx, ny));
+            }
+            int value = coinAt(nx, ny);
+            if (value != NO_COIN) {
+                if ((i & 1) == 0) {
+                    greenScore += value;
+                } else {
+                    redScore += value;
+                }
+                take(cell(nx, ny), value);
+                hash ^= Zobrist.coin(cell(nx, ny), value);
+            }
+            hash ^= Zobrist.figure(i, cell(x[i], y[i])) ^ Zobrist.figure(i, cell(nx, ny));
+            x[i] = nx;
+            y[i] = ny;
+        } else if (action == Action.STYLE.ordinal()) {
+            flags[i] ^= BoardSnapshot.ATTACKING;
+            hash ^= Zobrist.style(i);
+        } else {
+            int clone = i + 2;
+            flags[clone] = BoardSnapshot.PRESENT | BoardSnapshot.ALIVE;
+            x[clone] = y[i];
+            y[clone] = x[i];
+            flags[i] &= ~BoardSnapshot.HAS_CLONE;
+            hash ^= Zobrist.figure(clone, cell(x[clone], y[clone])) ^ Zobrist.cloneUsed(i);
+        }
+        greenToMove = !greenToMove;
+        hash ^= Zobrist.SIDE;
+    }
+
+    private void take(int cell, int value) {
+        if (journal == null) {
+            collected[collectedCount++] = cell;
+            return;
+        }
+        if (journalLength == journal.length) {
+            journal = Arrays.copyOf(journal, journalLength * 2);
+        }
+        journal[journalLength++] = cell;
+        journal[journalLength++] = value;
+        coins[cell] = NO_COIN;
+    }
+
+    /**
+     * Takes back the last move made
+     */
+    void unmake() {
+        int frame = --ply * FRAME;
+        for (int i = 0; i < FIGURES; i++) {
+            x[i] = undo[frame++];
+            y[i] = undo[frame++];
+            flags[i] = undo[frame++];
+        }
+        greenScore = undo[frame++];
+        redScore = undo[frame++];
+        collectedCount = undo[frame];
+        hash = undoHash[ply];
+        greenToMove = !greenToMove;
+    }
+
+    /**
+     * Scores the position for the side to move: the score difference plus a fixed value
+     * for every living figure, scaled so that the distance of each figure to its nearest
+     * reachable coin can break ties without ever outweighing a single point
+     *
+     * @return the evaluation
+     */
+    int evaluate() {
+        int diff = greenScore - redScore;
+        int proximity = 0;
+        for (int i = 0; i < FIGURES; i++) {
+            if (isActive(i)) {
+                int step = (flags[i] & BoardSnapshot.ATTACKING) != 0 ? 2 : 1;
+                int distance = coinIndex.nearestDistance(x[i], y[i], step, SearchStrategy.PROXIMITY_LIMIT, collected, collectedCount);
+                if ((i & 1) == 0) {
+                    diff += SearchStrategy.FIGURE_VALUE;
+                    proximity -= distance;
+                } else {
+                    diff -= SearchStrategy.FIGURE_VALUE;
+                    proximity += distance;
+                }
+            }
+        }
+        int value = diff * SearchStrategy.EVALUATION_SCALE + proximity;
+        return greenToMove ? value : -value;
+    }
+
+    /**
+     * The key starts from the board's Zobrist hash and is updated with the same keys,
+     * so it identifies the position regardless of the search it was reached in
+     *
+     * @return the position key, including the scores
+     */
+    long key() {
+        return hash ^ CoinSet.mix(((long) greenScore << 32) ^ (redScore & 0xFFFFFFFFL));
+    }
+
+    int ply() {
+        return ply;
+    }
+
+    /**
+     * @return the outcome if the game ended in this position
+     */
+    Outcome outcome() {
+        return Outcome.of(greenScore, redScore);
+    }
+
+    boolean isActive(int figure) {
+        return (flags[figure] & (BoardSnapshot.PRESENT | BoardSnapshot.ALIVE)) == (BoardSnapshot.PRESENT | BoardSnapshot.ALIVE);
+    }
+
+    private boolean inField(int cx, int cy) {
+        return cx >= 1 && cx <= size && cy >= 1 && cy <= size;
+    }
+
+    private int cell(int cx, int cy) {
+        return (cy - 1) * size + cx - 1;
+    }
+
+    private int figureAt(int cx, int cy) {
+        for (int i = 0; i < FIGURES; i++) {
+            if (x[i] == cx && y[i] == cy && isActive(i)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private int coinAt(int cx, int cy) {
+        int cell = cell(cx, cy);
+        for (int i = 0; i < collectedCount; i++) {
+            if (collected[i] == cell) {
+                return NO_COIN;
+            }
+        }
+        return coins[cell];
+    }
+}
+
+/**
+ * Zobrist keys shared by the {@link Board} hash and the search. Keys are derived by mixing
+ * the feature instead of looked up, so large boards need no key tables
+ */
+final class Zobrist {
+    static final long SIDE = key(0, 0);
+    private static final int COIN = 1, FIGURE = 2, STYLE = 3, CLONE_USED = 4;
+
+    private Zobrist() {
+    }
+
+    /**
+     * @param cell  the cell index, (y - 1) * width + x - 1
+     * @param value the value of the coin
+     * @return the key of a coin lying on a cell
+     */
+    static long coin(int cell, int value) {
+        return CoinSet.mix(key(COIN, cell) + value);
+    }
+
+    /**
+     * @param team the team ordinal of the figure
+     * @param cell the cell index
+     * @return the key of a figure standing on a cell
+     */
+    static long figure(int team, int cell) {
+        return key(FIGURE + (team << 3), cell);
+    }
+
+    static long figure(Team team, int cell) {
+        return figure(team.ordinal(), cell);
+    }
+
+    /**
+     * @param team the team ordinal of the figure
+     * @return the key of a figure being in the attacking style
+     */
+    static long style(int team) {
+        return key(STYLE, team);
+    }
+
+    static long style(Team team) {
+        return style(team.ordinal());
+    }
+
+    /**
+     * @param team the team ordinal of the original figure
+     * @return the key of a figure having used its clone
+     */
+    static long cloneUsed(int team) {
+        return key(CLONE_USED, team);
+    }
+
+    static long cloneUsed(Team team) {
+        return cloneUsed(team.ordinal());
+    }
+
+    private static long key(int kind, int index) {
+        return CoinSet.mix(((long) kind << 32) + index + 0x9E3779B97F4A7C15L);
+    }
+}
+
+/**
+ * Fixed-size transposition table of search results, shared by all search threads without locks.
+ * Each slot holds the key XOR-ed with the data next to the data itself, so an entry torn by
+ * concurrent writers fails the key check instead of being returned. Slots come in pairs:
+ * a new result replaces the entry of the same position, otherwise the entry from an older search
+ * or with the smaller depth
+ */
+final class TranspositionTable {
+    static final int EXACT = 0, LOWER = 1, UPPER = 2;
+    private static final VarHandle SLOTS = MethodHandles.arrayElementVarHandle(long[].class);
+
+    private final long[] checks;
+    private final long[] data;
+    private final int mask;
+    private volatile int generation;
+
+    /**
+     * Constructs a table
+     *
+     * @param bits log2 of the number of entries, at least 1
+     */
+    TranspositionTable(int bits) {
+        checks = new long[1 << bits];
+        data = new long[1 << bits];
+        mask = (1 << bits) - 2;
+    }
+
+    /**
+     * Marks the start of a new search, so entries of earlier searches are replaced first
+     */
+    void newSearch() {
+        generation = (generation + 1) & 0xFF;
+    }
+
+    /**
+     * Looks a position up
+     *
+     * @param key the position key
+     * @return the packed entry, or 0 if the position is not stored
+     */
+    long probe(long key) {
+        int slot = (int) key & mask;
+        for (int i = slot; i < slot + 2; i++) {
+            long entry = (long) SLOTS.getOpaque(data, i);
+            if (((long) SLOTS.getOpaque(checks, i) ^ entry) == key && entry != 0) {
+                return entry;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Stores a search result
+     *
+     * @param key   the position key
+     * @param value the value of the position
+     * @param depth the depth it was searched to
+     * @param bound EXACT, LOWER or UPPER
+     * @param move  the best move found
+     */
+    void store(long key, int value, int depth, int bound, int move) {
+        int slot = (int) key & mask;
+        int victim = slot;
+        int victimScore = Integer.MAX_VALUE;
+        for (int i = slot; i < slot + 2; i++) {
+            long entry = (long) SLOTS.getOpaque(data, i);
+            if (entry == 0 || ((long) SLOTS.getOpaque(checks, i) ^ entry) == key) {
+                victim = i;
+                break;
+            }
+            int score = depth(entry) - (generation(entry) == generation ? 0 : 256);
+            if (score < victimScore) {
+                victimScore = score;
+                victim = i;
+            }
+        }
+        long entry = pack(value, depth, bound, move, generation);
+        SLOTS.setOpaque(data, victim, entry);
+        SLOTS.setOpaque(checks, victim, key ^ entry);
+    }
+
+    static long pack(int value, int depth, int bound, int move, int generation) {
+        return (long) value << 32 | (long) (move & 0xFF) << 24 | (depth & 0xFF) << 16 | (generation & 0xFF) << 8 | bound << 1 | 1;
+    }
+
+    static int value(long entry) {
+        return (int) (entry >> 32);
+    }
+
+    static int move(long entry) {
+        return (int) (entry >>> 24) & 0xFF;
+    }
+
+    static int depth(long entry) {
+        return (int) (entry >>> 16) & 0xFF;
+    }
+
+    static int generation(long entry) {
+        return (int) (entry >>> 8) & 0xFF;
+    }
+
+    static int bound(long entry) {
+        return (int) (entry >>> 1) & 3;
+    }
+}
+
+/**
+ * Strategy of an automated player. The scripted direction is ignored: the figure's move,
+ * style change or clone is chosen by an alpha-beta search over coin collection and kills,
+ * deepened iteratively until the time budget runs out. The moves of the acting figure are
+ * searched in parallel, one task per move, on a fork-join pool, sharing one transposition table
+ */
+class SearchStrategy implements Strategy {
+    static final int FIGURE_VALUE = 10;
+    static final int EVALUATION_SCALE = 16;
+    static final int PROXIMITY_LIMIT = 7;
+    static final int MAX_DEPTH = 32;
+    static final long DEFAULT_BUDGET_MILLIS = 50;
+    private static final int INFINITY = 1 << 29;
+    private static final int TABLE_BITS = 20;
+
+    private final ForkJoinPool pool;
+    private final TranspositionTable table = new TranspositionTable(TABLE_BITS);
+    private final long budgetNanos;
+    private final LongAdder nodes = new LongAdder();
+    private final CoinGrid coins = new CoinGrid();
+    private long lastNodes;
+    private long lastNanos;
+    private int lastDepth;
+
+    /**
+     * Constructs a strategy
+     *
+     * @param pool         the pool to search on
+     * @param budgetMillis time to spend on each move
+     */
+    SearchStrategy(ForkJoinPool pool, long budgetMillis) {
+        this.pool = pool;
+        this.budgetNanos = budgetMillis * 1_000_000;
+    }
+
+    /**
+     * Performs the best action found for the figure
+     *
+     * @param figure    the figure to move
+     * @param direction ignored, the search picks the action
+     */
+    @Override
+    public void move(Figure figure, Direction direction) {
+        Board board = Board.getInstance();
+        int move = search(board, figure.team);
+        if (move < 0) {
+            board.getEvents().invalid();
+            return;
+        }
+        Action action = SearchState.actionOf(move);
+        switch (action) {
+            case UP, DOWN, LEFT, RIGHT -> (figure.getState().equals("ATTACKING") ? AttackingStrategy.INSTANCE
+                    : NormalStrategy.INSTANCE).move(figure, action.direction);
+            case STYLE -> figure.changeStyle();
+            case COPY -> figure.cloneFigure(board);
+        }
+    }
+
+    /**
+     * Searches the best action of one figure
+     *
+     * @param board the game board
+     * @param team  the team of the acting figure
+     * @return the move code, or -1 if the figure has no legal action
+     */
+    int search(Board board, Team team) {
+        long start = System.nanoTime();
+        long deadline = start + budgetNanos;
+        nodes.reset();
+        table.newSearch();
+        SearchState root = SearchState.of(board, team.isGreen(), coins);
+        int[] moves = new int[SearchState.FIGURES * 6];
+        int count = root.generate(moves, team.ordinal());
+        int best = count > 0 ? moves[0] : -1;
+        lastDepth = 0;
+        for (int depth = 1; depth <= MAX_DEPTH && count > 1 && System.nanoTime() < deadline; depth++) {
+            int iterationBest = searchRoot(root, moves, count, depth, deadline);
+            if (iterationBest < 0) {
+                break;
+            }
+            best = iterationBest;
+            lastDepth = depth;
+            for (int i = 1; i < count; i++) {
+                if (moves[i] == best) {
+                    moves[i] = moves[0];
+                    moves[0] = best;
+                }
+            }
+        }
+        lastNanos = System.nanoTime() - start;
+        lastNodes = nodes.sum();
+        return best;
+    }
+
+    /**
+     * @return nodes searched per second during the last search
+     */
+    double nodesPerSecond() {
+        return lastNanos == 0 ? 0 : lastNodes * 1e9 / lastNanos;
+    }
+
+    /**
+     * @return the depth of the last completed iteration of the last search
+     */
+    int lastDepth() {
+        return lastDepth;
+    }
+
+    /**
+     * Searches every root move in its own task. Tasks share the best value found so far as
+     * alpha, so a move that fails low only yields an upper bound; only moves whose value beat
+     * the alpha they were searched with are exact and can be chosen
+     *
+     * @return the best move, or -1 if the deadline passed before the iteration finished
+     */
+    private int searchRoot(SearchState root, int[] moves, int count, int depth, long deadline) {
+        AtomicInteger alpha = new AtomicInteger(-INFINITY);
+        List<ForkJoinTask<RootResult>> tasks = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            int move = moves[i];
+            tasks.add(ForkJoinTask.adapt(() -> {
+                SearchState state = root.copy();
+                state.make(move);
+                Searcher searcher = new Searcher(state, table, deadline);
+                int bound = alpha.get();
+                int value = -searcher.negamax(depth - 1, -INFINITY, -bound);
+                nodes.add(searcher.nodes);
+                if (searcher.stopped) {
+                    return null;
+                }
+                if (value <= bound) {
+                    return new RootResult(value, false);
+                }
+                alpha.accumulateAndGet(value, Math::max);
+                return new RootResult(value, true);
+            }));
+        }
+        int best = -1;
+        int bestValue = -INFINITY - 1;
+        for (ForkJoinTask<RootResult> task : tasks) {
+            pool.execute(task);
+        }
+        for (int i = 0; i < count; i++) {
+            RootResult result = tasks.get(i).join();
+            if (result == null) {
+                return -1;
+            }
+            if (result.exact() && result.value() > bestValue) {
+                bestValue = result.value();
+                best = moves[i];
+            }
+        }
+        return best < 0 ? moves[0] : best;
+    }
+
+    /**
+     * Value of one root move, and whether it is exact or only an upper bound
+     */
+    private record RootResult(int value, boolean exact) {
+    }
+
+    /**
+     * Alpha-beta search of one root move, run by one task on one thread
+     */
+    private static final class Searcher {
+        private final SearchState state;
+        private final TranspositionTable table;
+        private final long deadline;
+        private final int[][] moves = new int[SearchState.MAX_PLY][SearchState.FIGURES * 6];
+        private long nodes;
+        private boolean stopped;
+
+        Searcher(SearchState state, TranspositionTable table, long deadline) {
+            this.state = state;
+            this.table = table;
+            this.deadline = deadline;
+        }
+
+        int negamax(int depth, int alpha, int beta) {
+            nodes++;
+            if ((nodes & 1023) == 0 && System.nanoTime() > deadline) {
+                stopped = true;
+            }
+            if (stopped || depth == 0 || state.ply() >= SearchState.MAX_PLY - 1) {
+                return state.evaluate();
+            }
+
+            long key = state.key();
+            long entry = table.probe(key);
+            int hashMove = -1;
+            if (entry != 0) {
+                hashMove = TranspositionTable.move(entry);
+                if (TranspositionTable.depth(entry) >= depth) {
+                    int value = TranspositionTable.value(entry);
+                    int bound = TranspositionTable.bound(entry);
+                    if (bound == TranspositionTable.EXACT
+                            || (bound == TranspositionTable.LOWER && value >= beta)
+                            || (bound == TranspositionTable.UPPER && value <= alpha)) {
+                        return value;
+                    }
+                }
+            }
+
+            int[] list = moves[state.ply()];
+            int count = order(list, state.generate(list, -1), hashMove);
+            if (count == 0) {
+                return state.evaluate();
+            }
+
+            int originalAlpha = alpha;
+            int best = -INFINITY;
+            int bestMove = list[0];
+            for (int i = 0; i < count && !stopped; i++) {
+                state.make(list[i]);
+                int value = -negamax(depth - 1, -beta, -alpha);
+                state.unmake();
+                if (value > best) {
+                    best = value;
+                    bestMove = list[i];
+                }
+                if (best > alpha) {
+                    alpha = best;
+                }
+                if (alpha >= beta) {
+                    break;
+                }
+            }
+            if (!stopped) {
+                int bound = best <= originalAlpha ? TranspositionTable.UPPER
+                        : best >= beta ? TranspositionTable.LOWER : TranspositionTable.EXACT;
+                table.store(key, best, depth, bound, bestMove);
+            }
+            return best;
+        }
+
+        /**
+         * Puts the hash move first and captures right after it
+         */
+        private int order(int[] list, int count, int hashMove) {
+            int front = 0;
+            for (int i = 0; i < count; i++) {
+                if (list[i] == hashMove || state.isCapture(list[i])) {
+                    int move = list[i];
+                    list[i] = list[front];
+                    list[front++] = move;
+                }
+            }
+            for (int i = 1; i < front; i++) {
+                if (list[i] == hashMove) {
+                    list[i] = list[0];
+                    list[0] = hashMove;
+                }
+            }
+            return count;
+        }
+    }
+}
+
+/**
+ * Spatial index of the coins on the board, bucketed into square blocks of cells.
+ * Each bucket keeps the coordinates of its coins next to their indexes, so a query scans
+ * contiguous memory. It answers nearest-coin and coins-within-radius queries in moves of a given step,
+ * where a step of 2 only reaches cells at even offsets, and is updated as coins are collected
+ */
+final class CoinIndex {
+    private static final int BUCKET_BITS = 3;
+    private static final int BUCKET_SIZE = 1 << BUCKET_BITS;
+
+    private final int width;
+    private final int columns, rows;
+    private final int[][] buckets;
+    private final int[][] positions;
+    private final int[] counts;
+    private int[] xs = new int[64];
+    private int[] ys = new int[64];
+    private int[] slots = new int[64];
+    private int size;
+
+    /**
+     * Constructs an empty index
+     *
+     * @param width  the width of the board
+     * @param height the height of the board
+     */
+    CoinIndex(int width, int height) {
+        this.width = width;
+        this.columns = (width + BUCKET_SIZE - 1) >> BUCKET_BITS;
+        this.rows = (height + BUCKET_SIZE - 1) >> BUCKET_BITS;
+        this.buckets = new int[columns * rows][];
+        this.positions = new int[columns * rows][];
+        this.counts = new int[columns * rows];
+        Arrays.fill(slots, -1);
+    }
+
+    /**
+     * Adds a coin
+     *
+     * @param index the coin index
+     * @param x     the x-coordinate of the coin
+     * @param y     the y-coordinate of the coin
+     */
+    void add(int index, int x, int y) {
+        if (index >= slots.length) {
+            int length = Math.max(slots.length * 2, index + 1);
+            xs = Arrays.copyOf(xs, length);
+            ys = Arrays.copyOf(ys, length);
+            int old = slots.length;
+            slots = Arrays.copyOf(slots, length);
+            Arrays.fill(slots, old, length, -1);
+        }
+        if (slots[index] >= 0) {
+            return;
+        }
+        xs[index] = x;
+        ys[index] = y;
+        int bucket = bucket(x, y);
+        int[] members = buckets[bucket];
+        if (members == null) {
+            members = buckets[bucket] = new int[4];
+            positions[bucket] = new int[4];
+        } else if (counts[bucket] == members.length) {
+            members = buckets[bucket] = Arrays.copyOf(members, members.length * 2);
+            positions[bucket] = Arrays.copyOf(positions[bucket], members.length);
+        }
+        slots[index] = counts[bucket];
+        positions[bucket][counts[bucket]] = x << 16 | y;
+        members[counts[bucket]++] = index;
+        size++;
+    }
+
+    /**
+     * Removes a coin, if present
+     *
+     * @param index the coin index
+     */
+    void remove(int index) {
+        if (index >= slots.length || slots[index] < 0) {
+            return;
+        }
+        int bucket = bucket(xs[index], ys[index]);
+        int[] members = buckets[bucket];
+        int last = members[--counts[bucket]];
+        members[slots[index]] = last;
+        positions[bucket][slots[index]] = positions[bucket][counts[bucket]];
+        slots[last] = slots[index];
+        slots[index] = -1;
+        size--;
+    }
+
+    /**
+     * @return the number of coins in the index
+     */
+    int size() {
+        return size;
+    }
 
     /**
-     * Constructs a RedCloneFigure
+     * Finds the coin reachable in the fewest moves
      *
-     * @param x the x-coordinate of the figure
-     * @param y the y-coordinate of the figure
+     * @param x    the x-coordinate of the figure
+     * @param y    the y-coordinate of the figure
+     * @param step the number of cells covered by one move
+     * @return the coin index, or -1 if no coin is reachable
      */
-    public RedCloneFigure(int x, int y) {
-        super(x, y);
-        this.hasClone = false;
-        this.state = "NORMAL";
-        this.team = Team.REDCLONE;
+    int nearest(int x, int y, int step) {
+        long found = search(x, y, step, Integer.MAX_VALUE, null, 0);
+        return found < 0 ? -1 : (int) found;
     }
 
     /**
-     * Cloning is not allowed for RedCloneFigure
+     * Returns the number of moves to the nearest reachable coin, ignoring coins on excluded cells
      *
-     * @param board the game board
-     * @return always returns null
+     * @param x             the x-coordinate of the figure
+     * @param y             the y-coordinate of the figure
+     * @param step          the number of cells covered by one move
+     * @param limit         the largest distance of interest
+     * @param excluded      cell indexes, (y - 1) * width + x - 1, of coins to ignore
+     * @param excludedCount the number of excluded cells
+     * @return the distance in moves, or limit if there is no coin within it
      */
-    @Override
-    public Figure cloneFigure(Board board) {
-        System.out.println("INVALID ACTION");
-        return null;
+    int nearestDistance(int x, int y, int step, int limit, int[] excluded, int excludedCount) {
+        long found = search(x, y, step, limit * step, excluded, excludedCount);
+        return found < 0 ? limit : Math.min(limit, (int) (found >>> 32) / step);
     }
 
     /**
-     * Moves the figure in the specified direction
+     * Calls the action for every coin reachable within the given number of moves
      *
-     * @param direction the direction to move
+     * @param x      the x-coordinate of the figure
+     * @param y      the y-coordinate of the figure
+     * @param radius the number of moves
+     * @param step   the number of cells covered by one move
+     * @param action receives the coin indexes
      */
-    @Override
-    public void move(String direction) {
-        strategy.move(this, direction);
+    void forEachWithin(int x, int y, int radius, int step, IntConsumer action) {
+        int reach = radius * step;
+        int fromColumn = Math.max(0, (x - 1 - reach) >> BUCKET_BITS);
+        int toColumn = Math.min(columns - 1, (x - 1 + reach) >> BUCKET_BITS);
+        int fromRow = Math.max(0, (y - 1 - reach) >> BUCKET_BITS);
+        int toRow = Math.min(rows - 1, (y - 1 + reach) >> BUCKET_BITS);
+        for (int row = fromRow; row <= toRow; row++) {
+            for (int column = fromColumn; column <= toColumn; column++) {
+                int bucket = row * columns + column;
+                int[] members = buckets[bucket];
+                int[] packed = positions[bucket];
+                for (int i = 0; i < counts[bucket]; i++) {
+                    int distance = distance(x, y, packed[i], step);
+                    if (distance >= 0 && distance <= reach) {
+                        action.accept(members[i]);
+                    }
+                }
+            }
+        }
     }
 
     /**
-     * Changes the style of the figure between normal and attacking
+     * Scans rings of buckets around the figure until no closer coin can exist
+     *
+     * @return the distance in cells in the high half and the coin index in the low half, or -1
      */
-    @Override
-    public void changeStyle() {
-        if (this.getState().equals("NORMAL")) {
-            this.state = "ATTACKING";
-            setStrategy(new AttackingStrategy());
-        } else {
-            this.state = "NORMAL";
-            setStrategy(new NormalStrategy());
+    private long search(int x, int y, int step, int limitCells, int[] excluded, int excludedCount) {
+        int column = (x - 1) >> BUCKET_BITS;
+        int row = (y - 1) >> BUCKET_BITS;
+        int bestDistance = Integer.MAX_VALUE;
+        int best = -1;
+        int maxRing = Math.max(columns, rows);
+        for (int ring = 0; ring <= maxRing; ring++) {
+            int lowerBound = ring == 0 ? 0 : ((ring - 1) << BUCKET_BITS) + 1;
+            if (lowerBound > limitCells || lowerBound >= bestDistance) {
+                break;
+            }
+            for (int r = row - ring; r <= row + ring; r++) {
+                if (r < 0 || r >= rows) {
+                    continue;
+                }
+                boolean edge = r == row - ring || r == row + ring;
+                for (int c = column - ring; c <= column + ring; c += edge || ring == 0 ? 1 : 2 * ring) {
+                    if (c < 0 || c >= columns || gap(x, c) + gap(y, r) >= bestDistance) {
+                        continue;
+                    }
+                    int bucket = r * columns + c;
+                    int[] members = buckets[bucket];
+                    int[] packed = positions[bucket];
+                    for (int i = 0; i < counts[bucket]; i++) {
+                        int distance = distance(x, y, packed[i], step);
+                        if (distance >= 0 && distance < bestDistance && distance <= limitCells
+                                && !isExcluded(members[i], excluded, excludedCount)) {
+                            bestDistance = distance;
+                            best = members[i];
+                        }
+                    }
+                }
+            }
         }
-        System.out.println(team + " CHANGED STYLE TO " + state);
+        return best < 0 ? -1 : (long) bestDistance << 32 | best;
     }
-}
 
-/**
- * Represents coins in the game
- */
-class Coin implements BoardComponent {
-    private final int x, y, value;
-
-    public Coin(int x, int y, int value) {
-        this.x = x;
-        this.y = y;
-        this.value = value;
+    /**
+     * @param position the coin coordinates packed as x in the high and y in the low 16 bits
+     * @return the Manhattan distance in cells, or -1 if the coin is off the figure's lattice
+     */
+    private static int distance(int x, int y, int position, int step) {
+        int dx = Math.abs((position >>> 16) - x);
+        int dy = Math.abs((position & 0xFFFF) - y);
+        if (step > 1 && (dx % step != 0 || dy % step != 0)) {
+            return -1;
+        }
+        return dx + dy;
     }
 
-    @Override
-    public int getX() {
-        return x;
+    /**
+     * @return the distance in cells from a coordinate to the nearest cell of a bucket column or row
+     */
+    private static int gap(int coordinate, int bucket) {
+        int from = (bucket << BUCKET_BITS) + 1;
+        int to = from + BUCKET_SIZE - 1;
+        return coordinate < from ? from - coordinate : coordinate > to ? coordinate - to : 0;
     }
 
-    @Override
-    public int getY() {
-        return y;
+    private boolean isExcluded(int coin, int[] excluded, int excludedCount) {
+        int cell = (ys[coin] - 1) * width + xs[coin] - 1;
+        for (int i = 0; i < excludedCount; i++) {
+            if (excluded[i] == cell) {
+                return true;
+            }
+        }
+        return false;
     }
 
-    public int getValue() {
-        return value;
+    private int bucket(int x, int y) {
+        return ((y - 1) >> BUCKET_BITS) * columns + ((x - 1) >> BUCKET_BITS);
     }
 }
 
 /**
- * Represents a cell on the game board
- */
-class Cell {
-    BoardComponent content;
-}
-
-/**
- * Represents the game board, implementing the Singleton and Composite patterns
+ * Bitboard layer kept beside the board grid: one bitset each for green pieces, red pieces and coins,
+ * with bit (y - 1) * width + x - 1 standing for cell (x, y). Moves of a whole set of figures are
+ * computed at once by shifting the words, with column masks stopping horizontal moves from
+ * wrapping into the next row
  */
-class Board {
-    private static Board instance;
-    private final int width, height;
-    private final Cell[][] grid;
-    private final TeamScore teamScore = new TeamScore();
+final class BitBoard {
+    final int width, height;
+    final int words;
+    final long[] green, red, coins;
+    private final long[] valid;
+    private final long[][] rightMasks = new long[3][];
+    private final long[][] leftMasks = new long[3][];
 
     /**
-     * Constructs a Board with specified width and height
+     * Constructs empty bitboards
      *
      * @param width  the width of the board
      * @param height the height of the board
      */
-    private Board(int width, int height) {
+    BitBoard(int width, int height) {
         this.width = width;
         this.height = height;
-        this.grid = new Cell[height + 1][width + 1];
-        for (int i = 0; i <= height; i++) {
-            for (int j = 0; j <= width; j++) {
-                grid[i][j] = new Cell();
+        this.words = (int) (((long) width * height + 63) >>> 6);
+        this.green = new long[words];
+        this.red = new long[words];
+        this.coins = new long[words];
+        this.valid = empty();
+        for (int step = 1; step <= 2; step++) {
+            rightMasks[step] = empty();
+            leftMasks[step] = empty();
+        }
+        for (int y = 1; y <= height; y++) {
+            for (int x = 1; x <= width; x++) {
+                int index = (y - 1) * width + x - 1;
+                set(valid, index);
+                for (int step = 1; step <= 2; step++) {
+                    if (x > step) {
+                        set(rightMasks[step], index);
+                    }
+                    if (x <= width - step) {
+                        set(leftMasks[step], index);
+                    }
+                }
             }
         }
     }
 
     /**
-     * Represents the Singleton pattern
-     *
-     * @return the singleton instance of the Board
+     * @return a new empty bitset of the board's size
      */
-    public static Board getInstance() {
-        return instance;
+    long[] empty() {
+        return new long[words];
     }
 
-    /**
-     * Returns the singleton instance of the Board, creating it if necessary
-     *
-     * @param width  the width of the board
-     * @param height the height of the board
-     * @return the singleton instance of the Board
-     */
-    public static Board getInstance(int width, int height) {
-        if (instance == null) {
-            instance = new Board(width, height);
-        }
-        return instance;
+    static void set(long[] bits, int index) {
+        bits[index >>> 6] |= 1L << index;
+    }
+
+    static boolean get(long[] bits, int index) {
+        return (bits[index >>> 6] & (1L << index)) != 0;
     }
 
     /**
-     * Checks if the specified coordinates are within the bounds of the board
+     * Clears a cell in all three sets
      *
-     * @param x the x-coordinate
-     * @param y the y-coordinate
-     * @return true if the coordinates are within the bounds, false otherwise
+     * @param index the cell index
      */
-    public boolean isInField(int x, int y) {
-        return x >= 1 && x <= width && y >= 1 && y <= height;
+    void clear(int index) {
+        long mask = ~(1L << index);
+        green[index >>> 6] &= mask;
+        red[index >>> 6] &= mask;
+        coins[index >>> 6] &= mask;
     }
 
     /**
-     * @return the team score
+     * @return the occupied cells, pieces of both sides and coins
      */
-    public TeamScore getTeamScore() {
-        return teamScore;
+    long[] occupied() {
+        long[] bits = empty();
+        for (int i = 0; i < words; i++) {
+            bits[i] = green[i] | red[i] | coins[i];
+        }
+        return bits;
     }
 
     /**
-     * Adds a component to the board at its coordinates.
-     * This demonstrates the Composite pattern, where the Board can contain both Figures and Coins
+     * Adds the cells reachable in one move from any cell of a set
      *
-     * @param component the component to add (Figure or Coin)
+     * @param from    the starting cells
+     * @param step    the number of cells covered by one move, 1 or 2
+     * @param blocked cells that cannot be moved into, usually the pieces of the same side
+     * @param out     receives the reachable cells
      */
-    public void addComponent(BoardComponent component) {
-        grid[component.getY()][component.getX()].content = component;
+    void addReachable(long[] from, int step, long[] blocked, long[] out) {
+        long[] moved = empty();
+        orShifted(from, step, rightMasks[step], moved);
+        orShifted(from, -step, leftMasks[step], moved);
+        orShifted(from, step * width, valid, moved);
+        orShifted(from, -step * width, valid, moved);
+        for (int i = 0; i < words; i++) {
+            out[i] |= moved[i] & ~blocked[i];
+        }
     }
 
     /**
-     * Adds a figure to the board at its coordinates
+     * Computes where figures on a set of cells would place their clones: the cell mirrored
+     * on the main diagonal, if it is off the diagonal and empty. Figure sets are sparse,
+     * so the set bits are visited one by one
      *
-     * @param figure the figure to add
+     * @param from the cells of the cloning figures
+     * @return the clone targets
      */
-    public void addFigure(Figure figure) {
-        addComponent(figure);
+    long[] cloneTargets(long[] from) {
+        long[] targets = empty();
+        for (int i = 0; i < words; i++) {
+            long word = from[i];
+            while (word != 0) {
+                int index = (i << 6) + Long.numberOfTrailingZeros(word);
+                word &= word - 1;
+                int x = index % width + 1;
+                int y = index / width + 1;
+                if (x != y && x <= height && y <= width) {
+                    int target = (x - 1) * width + y - 1;
+                    if (!get(green, target) && !get(red, target) && !get(coins, target)) {
+                        set(targets, target);
+                    }
+                }
+            }
+        }
+        return targets;
     }
 
     /**
-     * Adds a coin to the board at its coordinates
-     *
-     * @param coin the coin to add
+     * ORs a copy of a bitset shifted toward higher cell indexes by the given number of bits
+     * (lower for a negative shift), masked, into the output
      */
-    public void addCoin(Coin coin) {
-        addComponent(coin);
+    private void orShifted(long[] src, int bits, long[] mask, long[] out) {
+        int distance = Math.abs(bits);
+        int wordShift = distance >>> 6;
+        int bitShift = distance & 63;
+        for (int i = 0; i < words; i++) {
+            long value;
+            if (bits >= 0) {
+                int j = i - wordShift;
+                value = j >= 0 ? src[j] << bitShift : 0;
+                if (bitShift != 0 && j > 0) {
+                    value |= src[j - 1] >>> (64 - bitShift);
+                }
+            } else {
+                int j = i + wordShift;
+                value = j < words ? src[j] >>> bitShift : 0;
+                if (bitShift != 0 && j + 1 < words) {
+                    value |= src[j + 1] << (64 - bitShift);
+                }
+            }
+            out[i] |= value & mask[i];
+        }
     }
+}
+
+/**
+ * Plays random games from one position to estimate the chances of each side. Every game
+ * is a sequence of random legal actions of randomly chosen living figures of both teams.
+ * Games run on all threads of a fork-join pool, each with its own generator split from one seed
+ * and a reusable board buffer, and nothing is printed
+ */
+class PlayoutEngine {
+    private final BoardSnapshot root;
+    private final int[] coins;
+    private final ForkJoinPool pool;
+    private final Queue<Playout> buffers = new ConcurrentLinkedQueue<>();
 
     /**
-     * Clears the content of the cell at the specified coordinates
+     * Captures the current position of the board
      *
-     * @param x the x-coordinate
-     * @param y the y-coordinate
+     * @param board the game board
+     * @param pool  the pool to play on
      */
-    public void clearComponent(int x, int y) {
-        if (!isInField(x, y)) {
-            System.out.println("INVALID ACTION");
-            return;
-        }
-        grid[y][x].content = null;
+    PlayoutEngine(Board board, ForkJoinPool pool) {
+        this.root = board.save();
+        this.pool = pool;
+        this.coins = new CoinGrid().update(board, root);
     }
 
     /**
-     * Moves a figure to new coordinates on the board
+     * Plays a number of games and counts their outcomes
      *
-     * @param figure the figure to move
-     * @param newX   new x-coordinate
-     * @param newY   new y-coordinate
+     * @param games      the number of games
+     * @param maxActions the number of actions in every game
+     * @param seed       the seed of the random generators
+     * @return the counts of wins and ties
      */
-    public void moveFigure(Figure figure, int newX, int newY) {
-        if (!isInField(newX, newY)) {
-            System.out.println("INVALID ACTION");
-            return;
+    PlayoutResult run(long games, int maxActions, long seed) {
+        int tasks = pool.getParallelism();
+        SplittableRandom random = new SplittableRandom(seed);
+        List<ForkJoinTask<long[]>> submitted = new ArrayList<>(tasks);
+        for (int t = 0; t < tasks; t++) {
+            long share = games / tasks + (t < games % tasks ? 1 : 0);
+            SplittableRandom taskRandom = random.split();
+            submitted.add(pool.submit(() -> play(share, maxActions, taskRandom)));
         }
-        if (isInField(figure.getX(), figure.getY())) {
-            clearComponent(figure.getX(), figure.getY());
+        long[] counts = new long[Outcome.values().length];
+        for (ForkJoinTask<long[]> task : submitted) {
+            long[] taskCounts = task.join();
+            for (int i = 0; i < counts.length; i++) {
+                counts[i] += taskCounts[i];
+            }
         }
+        return new PlayoutResult(counts[Outcome.GREEN_WINS.ordinal()], counts[Outcome.RED_WINS.ordinal()],
+                counts[Outcome.TIE.ordinal()]);
+    }
 
-        figure.x = newX;
-        figure.y = newY;
-        grid[newY][newX].content = figure;
+    private long[] play(long games, int maxActions, SplittableRandom random) {
+        Playout playout = buffers.poll();
+        if (playout == null) {
+            playout = new Playout(root, coins);
+        }
+        long[] counts = new long[Outcome.values().length];
+        for (long i = 0; i < games; i++) {
+            counts[playout.play(random, maxActions).ordinal()]++;
+        }
+        buffers.offer(playout);
+        return counts;
+    }
+}
+
+/**
+ * Counts of the outcomes of random games
+ */
+final class PlayoutResult {
+    final long greenWins, redWins, ties;
+
+    PlayoutResult(long greenWins, long redWins, long ties) {
+        this.greenWins = greenWins;
+        this.redWins = redWins;
+        this.ties = ties;
     }
 
     /**
-     * Returns the component at the specified coordinates
-     *
-     * @param x the x-coordinate
-     * @param y the y-coordinate
-     * @return the component at the cell, or null if the coordinates are out of bounds or the cell is empty
+     * @return the number of games played
      */
-    public BoardComponent getComponent(int x, int y) {
-        if (!isInField(x, y)) {
-            System.out.println("INVALID ACTION");
-            return null;
-        }
-        return grid[y][x].content;
+    long games() {
+        return greenWins + redWins + ties;
     }
 
     /**
-     * Finds a figure on the board by its team
-     *
-     * @param team the team of the figure
-     * @return the figure, or null if not found
+     * @param outcome the outcome
+     * @return the share of games that ended with it
      */
-    public Figure findFigureByTeam(Team team) {
-        for (int y = 1; y <= height; y++) {
-            for (int x = 1; x <= width; x++) {
-                BoardComponent component = grid[y][x].content;
-                if (component instanceof Figure figure && figure.team == team) {
-                    return figure;
-                }
-            }
-        }
-        return null;
+    double probability(Outcome outcome) {
+        long count = switch (outcome) {
+            case GREEN_WINS -> greenWins;
+            case RED_WINS -> redWins;
+            case TIE -> ties;
+        };
+        return games() == 0 ? 0 : (double) count / games();
     }
-}
 
-/**
- * Class for creating figures, using pattern factory
- */
-class FigureFactory {
     /**
-     * Creates a figure based on its name and coordinates
-     *
-     * @param name the name of the figure
-     * @param x    the x-coordinate
-     * @param y    the y-coordinate
-     * @return the created figure
-     * @throws IllegalArgumentException if the name is invalid
+     * @return the most frequent outcome
      */
-    public static Figure create(String name, int x, int y) {
-        return switch (name) {
-            case "GREEN" -> new GreenFigure(x, y);
-            case "RED" -> new RedFigure(x, y);
-            case "GREENCLONE" -> new GreenCloneFigure(x, y);
-            case "REDCLONE" -> new RedCloneFigure(x, y);
-            default -> throw new IllegalArgumentException("Invalid action");
-        };
+    Outcome mostLikely() {
+        if (greenWins > redWins && greenWins >= ties) {
+            return Outcome.GREEN_WINS;
+        } else if (redWins > greenWins && redWins >= ties) {
+            return Outcome.RED_WINS;
+        }
+        return Outcome.TIE;
     }
 }
 
-
 /**
- * Represents the scores of the teams
+ * Board buffer for random games. It drives a playout {@link SearchState}, which owns a copy
+ * of the coin values and journals the coins each game collects, so resetting for the next
+ * game only puts those back
  */
-class TeamScore {
-    private int greenScore = 0;
-    private int redScore = 0;
+final class Playout {
+    private static final int FIGURES = SearchState.FIGURES;
 
-    public void addScore(Team team, int value) {
-        switch (team) {
-            case GREEN, GREENCLONE -> greenScore += value;
-            case RED, REDCLONE -> redScore += value;
-        }
+    private final SearchState state;
+    private final int[] moves = new int[6];
+    private final int[] active = new int[FIGURES];
+
+    Playout(BoardSnapshot root, int[] coins) {
+        this.state = SearchState.forPlayouts(root, coins);
     }
 
     /**
-     * Returns the score of the green team
+     * Plays one game from the root position
      *
-     * @return the green team's score
+     * @param random     the generator to draw actions from
+     * @param maxActions the number of actions to play
+     * @return the outcome of the game
      */
-    public int getGreenScore() {
-        return greenScore;
+    Outcome play(SplittableRandom random, int maxActions) {
+        state.restart();
+        for (int action = 0; action < maxActions; action++) {
+            int count = 0;
+            for (int i = 0; i < FIGURES; i++) {
+                if (state.isActive(i)) {
+                    active[count++] = i;
+                }
+            }
+            int figure = active[random.nextInt(count)];
+            state.play(moves[random.nextInt(state.generateFor(moves, figure))]);
+        }
+        return state.outcome();
     }
+}
 
-    /**
-     * Returns the score of the red team
-     *
-     * @return the red team's score
-     */
-    public int getRedScore() {
-        return redScore;
+/**
+ * Measures how the game-tree search scales with threads: searches one seeded position on pools
+ * of 1, 2, 4 and so on up to the maximum number of threads and prints the nodes searched per second.
+ * Arguments, all optional: board size, time per search in milliseconds, maximum number of threads
+ */
+class SearchBenchmark {
+    private static final int ROUNDS = 5;
+
+    public static void main(String[] args) {
+        int size = args.length > 0 ? Integer.parseInt(args[0]) : 15;
+        long budgetMillis = args.length > 1 ? Long.parseLong(args[1]) : 500;
+        int maxThreads = args.length > 2 ? Integer.parseInt(args[2]) : 32;
+
+        Board board = Board.getInstance(size, size);
+        board.setEvents(SilentEventSink.INSTANCE);
+        Figure green = FigureFactory.create("GREEN", 1, size);
+        Figure red = FigureFactory.create("RED", size, 1);
+        green.setStrategy(NormalStrategy.INSTANCE);
+        red.setStrategy(NormalStrategy.INSTANCE);
+        board.addComponent(green);
+        board.addComponent(red);
+        Random random = new Random(size);
+        for (int y = 1; y <= size; y++) {
+            for (int x = 1; x <= size; x++) {
+                if (board.getComponent(x, y) == null && random.nextInt(3) == 0) {
+                    board.addComponent(new Coin(x, y, random.nextInt(9) + 1));
+                }
+            }
+        }
+
+        System.out.printf("%7s %14s %8s %6s%n", "threads", "nodes/s", "speedup", "depth");
+        double single = 0;
+        for (int threads = 1; threads <= maxThreads; threads *= 2) {
+            ForkJoinPool pool = new ForkJoinPool(threads);
+            try {
+                SearchStrategy strategy = new SearchStrategy(pool, budgetMillis);
+                strategy.search(board, Team.GREEN);
+                double total = 0;
+                int depth = 0;
+                for (int round = 0; round < ROUNDS; round++) {
+                    strategy.search(board, Team.GREEN);
+                    total += strategy.nodesPerSecond();
+                    depth = Math.max(depth, strategy.lastDepth());
+                }
+                double rate = total / ROUNDS;
+                if (threads == 1) {
+                    single = rate;
+                }
+                System.out.printf("%7d %14.0f %8.2f %6d%n", threads, rate, rate / single, depth);
+            } finally {
+                pool.shutdown();
+            }
+        }
     }
 }
@@ -1,3 +1,13 @@
+import java.io.ByteArrayOutputStream;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
 abstract class Expression {
     public abstract int interpret();
 }
@@ -13,6 +23,10 @@ class NumberExpression extends Expression {
     public int interpret() {
         return number;
     }
+
+    public int getNumber() {
+        return number;
+    }
 }
 
 class MultiplicationExpression extends Expression {
@@ -28,6 +42,14 @@ class MultiplicationExpression extends Expression {
     public int interpret() {
         return left.interpret() * right.interpret();
     }
+
+    public Expression getLeft() {
+        return left;
+    }
+
+    public Expression getRight() {
+        return right;
+    }
 }
 
 class AdditionExpression extends Expression {
@@ -43,6 +65,14 @@ class AdditionExpression extends Expression {
     public int interpret() {
         return left.interpret() + right.interpret();
     }
+
+    public Expression getLeft() {
+        return left;
+    }
+
+    public Expression getRight() {
+        return right;
+    }
 }
 
 class SubtractionExpression extends Expression {
@@ -58,6 +88,1358 @@ class SubtractionExpression extends Expression {
     public int interpret() {
         return left.interpret() - right.interpret();
     }
+
+    public Expression getLeft() {
+        return left;
+    }
+
+    public Expression getRight() {
+        return right;
+    }
+}
+
+// Column-major rows of int values that variables read from; the cursor selects the row interpret() sees.
+class Table {
+    private final int[][] columns;
+    private final int rows;
+    private int row;
+    private long version;
+
+    public Table(int[]... columns) {
+        this.columns = columns;
+        this.rows = columns.length == 0 ? 0 : columns[0].length;
+        for (int[] column : columns) {
+            if (column.length != rows) {
+                throw new IllegalArgumentException("Columns must have the same length");
+            }
+        }
+    }
+
+    public int getRows() {
+        return rows;
+    }
+
+    public int[] getColumn(int column) {
+        return columns[column];
+    }
+
+    public int get(int column) {
+        return columns[column][row];
+    }
+
+    public int getRow() {
+        return row;
+    }
+
+    public void setRow(int row) {
+        this.row = row;
+        version++;
+    }
+
+    // Changes whenever the values seen by variables change; columns edited in place are not detected.
+    public long getVersion() {
+        return version;
+    }
+}
+
+class VariableExpression extends Expression {
+    private final Table table;
+    private final int column;
+
+    public VariableExpression(Table table, int column) {
+        this.table = table;
+        this.column = column;
+    }
+
+    @Override
+    public int interpret() {
+        return table.get(column);
+    }
+
+    public Table getTable() {
+        return table;
+    }
+
+    public int getColumn() {
+        return column;
+    }
+}
+
+// A subtree that the optimizer found in more than one place; it is evaluated once per Evaluation.
+class SharedExpression extends Expression {
+    private final Expression expression;
+    private final Evaluation evaluation;
+    private long evaluated = -1;
+    private int value;
+
+    public SharedExpression(Expression expression, Evaluation evaluation) {
+        this.expression = expression;
+        this.evaluation = evaluation;
+    }
+
+    @Override
+    public int interpret() {
+        long current = evaluation.getCurrent();
+        if (evaluated != current) {
+            value = expression.interpret();
+            evaluated = current;
+        }
+        return value;
+    }
+
+    public Expression getExpression() {
+        return expression;
+    }
+}
+
+// Root of an optimized tree: starting a new evaluation invalidates every SharedExpression below it.
+class Evaluation extends Expression {
+    private Expression expression;
+    private long current;
+
+    @Override
+    public int interpret() {
+        current++;
+        return expression.interpret();
+    }
+
+    public long getCurrent() {
+        return current;
+    }
+
+    public Expression getExpression() {
+        return expression;
+    }
+
+    void setExpression(Expression expression) {
+        this.expression = expression;
+    }
+}
+
+// Recursive descent parser for +, -, * and parentheses over integer literals and column names.
+class ExpressionParser {
+    private final Table table;
+    private final List<String> columns;
+    private CharSequence text;
+    private int position;
+
+    public ExpressionParser() {
+        this(null);
+    }
+
+    public ExpressionParser(Table table, String... columns) {
+        this.table = table;
+        this.columns = List.of(columns);
+    }
+
+    public Expression parse(CharSequence text) {
+        this.text = text;
+        this.position = 0;
+        Expression expression = parseSum();
+        skipSpaces();
+        if (position < text.length()) {
+            throw error();
+        }
+        return expression;
+    }
+
+    private Expression parseSum() {
+        Expression expression = parseProduct();
+        while (true) {
+            skipSpaces();
+            if (accept('+')) {
+                expression = new AdditionExpression(expression, parseProduct());
+            } else if (accept('-')) {
+                expression = new SubtractionExpression(expression, parseProduct());
+            } else {
+                return expression;
+            }
+        }
+    }
+
+    private Expression parseProduct() {
+        Expression expression = parseFactor();
+        while (true) {
+            skipSpaces();
+            if (accept('*')) {
+                expression = new MultiplicationExpression(expression, parseFactor());
+            } else {
+                return expression;
+            }
+        }
+    }
+
+    private Expression parseFactor() {
+        skipSpaces();
+        if (accept('(')) {
+            Expression expression = parseSum();
+            skipSpaces();
+            if (!accept(')')) {
+                throw error();
+            }
+            return expression;
+        }
+        if (accept('-')) {
+            skipSpaces();
+            // A negated literal is read as one number, so -2147483648 stays in range.
+            if (position < text.length() && isDigit(text.charAt(position))) {
+                return parseNumber(true);
+            }
+            return new SubtractionExpression(new NumberExpression(0), parseFactor());
+        }
+        if (position < text.length() && isDigit(text.charAt(position))) {
+            return parseNumber(false);
+        }
+        int start = position;
+        while (position < text.length() && Character.isLetterOrDigit(text.charAt(position))) {
+            position++;
+        }
+        int column = columns.indexOf(text.subSequence(start, position).toString());
+        if (start == position || column < 0) {
+            position = start;
+            throw error();
+        }
+        return new VariableExpression(table, column);
+    }
+
+    private Expression parseNumber(boolean negative) {
+        long limit = negative ? -(long) Integer.MIN_VALUE : Integer.MAX_VALUE;
+        long value = 0;
+        do {
+            value = value * 10 + (text.charAt(position++) - '0');
+            if (value > limit) {
+                throw new IllegalArgumentException("Number too large at " + position);
+            }
+        } while (position < text.length() && isDigit(text.charAt(position)));
+        return new NumberExpression((int) (negative ? -value : value));
+    }
+
+    private boolean accept(char expected) {
+        if (position < text.length() && text.charAt(position) == expected) {
+            position++;
+            return true;
+        }
+        return false;
+    }
+
+    private void skipSpaces() {
+        while (position < text.length() && Character.isWhitespace(text.charAt(position))) {
+            position++;
+        }
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    private IllegalArgumentException error() {
+        return new IllegalArgumentException(position < text.length()
+            ? "Unexpected '" + text.charAt(position) + "' at " + position
+            : "Unexpected end of expression");
+    }
+}
+
+// Folds constants, drops identities (x+0, x-0, x*1) and zero products, and hash-conses the result so
+// equal subtrees become one node. Nodes used more than once are wrapped in SharedExpression.
+class ExpressionOptimizer {
+    private record Key(Class<?> type, Expression left, Expression right, Table table, int value) {
+    }
+
+    private final Map<Key, Expression> interned = new HashMap<>();
+    private final Map<Expression, Integer> uses = new IdentityHashMap<>();
+
+    public static Expression optimize(Expression expression) {
+        ExpressionOptimizer optimizer = new ExpressionOptimizer();
+        Expression root = optimizer.simplify(expression);
+        Evaluation evaluation = new Evaluation();
+        evaluation.setExpression(optimizer.share(root, evaluation));
+        return evaluation;
+    }
+
+    // Iterative post-order walk, so long operator chains do not exhaust the call stack.
+    private Expression simplify(Expression expression) {
+        Map<Expression, Expression> done = new IdentityHashMap<>();
+        Deque<Expression> pending = new ArrayDeque<>();
+        pending.push(expression);
+        while (!pending.isEmpty()) {
+            Expression node = pending.peek();
+            if (!isBinary(node)) {
+                pending.pop();
+                done.put(node, leaf(node));
+                continue;
+            }
+            Expression left = done.get(ExpressionCompiler.left(node));
+            Expression right = done.get(ExpressionCompiler.right(node));
+            if (left == null || right == null) {
+                if (right == null) {
+                    pending.push(ExpressionCompiler.right(node));
+                }
+                if (left == null) {
+                    pending.push(ExpressionCompiler.left(node));
+                }
+                continue;
+            }
+            pending.pop();
+            done.put(node, combine(node, left, right));
+        }
+        return done.get(expression);
+    }
+
+    private Expression leaf(Expression node) {
+        if (node instanceof NumberExpression number) {
+            return number(number.getNumber());
+        }
+        if (node instanceof VariableExpression variable) {
+            return interned.computeIfAbsent(new Key(VariableExpression.class, null, null, variable.getTable(), variable.getColumn()),
+                key -> new VariableExpression(key.table(), key.value()));
+        }
+        return node;
+    }
+
+    private Expression combine(Expression node, Expression left, Expression right) {
+        Integer a = left instanceof NumberExpression number ? number.getNumber() : null;
+        Integer b = right instanceof NumberExpression number ? number.getNumber() : null;
+        if (a != null && b != null) {
+            // Only fold what fits an int, so ExactEvaluator still sees the overflowing operation.
+            try {
+                return number(node instanceof AdditionExpression ? Math.addExact(a, b)
+                    : node instanceof SubtractionExpression ? Math.subtractExact(a, b) : Math.multiplyExact(a, b));
+            } catch (ArithmeticException e) {
+                a = b = null;
+            }
+        }
+        if (node instanceof AdditionExpression) {
+            if (Integer.valueOf(0).equals(a)) {
+                return right;
+            }
+            if (Integer.valueOf(0).equals(b)) {
+                return left;
+            }
+        } else if (node instanceof SubtractionExpression) {
+            if (Integer.valueOf(0).equals(b)) {
+                return left;
+            }
+            if (left == right) {
+                return number(0);
+            }
+        } else {
+            if (Integer.valueOf(0).equals(a) || Integer.valueOf(0).equals(b)) {
+                return number(0);
+            }
+            if (Integer.valueOf(1).equals(a)) {
+                return right;
+            }
+            if (Integer.valueOf(1).equals(b)) {
+                return left;
+            }
+        }
+        return interned.computeIfAbsent(new Key(node.getClass(), left, right, null, 0), key -> {
+            uses.merge(left, 1, Integer::sum);
+            uses.merge(right, 1, Integer::sum);
+            return rebuild(node, left, right);
+        });
+    }
+
+    private Expression number(int value) {
+        return interned.computeIfAbsent(new Key(NumberExpression.class, null, null, null, value),
+            key -> new NumberExpression(value));
+    }
+
+    private Expression share(Expression root, Evaluation evaluation) {
+        Map<Expression, Expression> done = new IdentityHashMap<>();
+        Deque<Expression> pending = new ArrayDeque<>();
+        pending.push(root);
+        while (!pending.isEmpty()) {
+            Expression node = pending.peek();
+            if (done.containsKey(node)) {
+                pending.pop();
+                continue;
+            }
+            Expression result = node;
+            if (isBinary(node)) {
+                Expression left = done.get(ExpressionCompiler.left(node));
+                Expression right = done.get(ExpressionCompiler.right(node));
+                if (left == null || right == null) {
+                    if (right == null) {
+                        pending.push(ExpressionCompiler.right(node));
+                    }
+                    if (left == null) {
+                        pending.push(ExpressionCompiler.left(node));
+                    }
+                    continue;
+                }
+                if (left != ExpressionCompiler.left(node) || right != ExpressionCompiler.right(node)) {
+                    result = rebuild(node, left, right);
+                }
+                if (uses.getOrDefault(node, 0) > 1) {
+                    result = new SharedExpression(result, evaluation);
+                }
+            }
+            pending.pop();
+            done.put(node, result);
+        }
+        return done.get(root);
+    }
+
+    static boolean isBinary(Expression node) {
+        return node instanceof AdditionExpression
+            || node instanceof SubtractionExpression
+            || node instanceof MultiplicationExpression;
+    }
+
+    static Expression rebuild(Expression node, Expression left, Expression right) {
+        if (node instanceof AdditionExpression) {
+            return new AdditionExpression(left, right);
+        } else if (node instanceof SubtractionExpression) {
+            return new SubtractionExpression(left, right);
+        }
+        return new MultiplicationExpression(left, right);
+    }
+}
+
+enum Arithmetic {
+    WRAPPING, EXACT, UNBOUNDED
+}
+
+// Evaluates an expression without int overflow. EXACT works in long and throws ArithmeticException when
+// a long overflows; UNBOUNDED stays on longs too and switches only the overflowing subtree to BigInteger,
+// going back to longs as soon as a value fits again.
+class ExactEvaluator {
+    private static final BigInteger LONG_MIN = BigInteger.valueOf(Long.MIN_VALUE);
+    private static final BigInteger LONG_MAX = BigInteger.valueOf(Long.MAX_VALUE);
+
+    private final boolean promote;
+    // Operand stack; a slot whose value did not fit in a long holds it in bigs instead.
+    private long[] values = new long[16];
+    private BigInteger[] bigs = new BigInteger[16];
+    private int top;
+
+    private ExactEvaluator(boolean promote) {
+        this.promote = promote;
+    }
+
+    public static Number evaluate(Expression expression, Arithmetic arithmetic) {
+        switch (arithmetic) {
+            case WRAPPING:
+                return expression.interpret();
+            case EXACT:
+                return interpretExact(expression);
+            default:
+                return interpretUnbounded(expression);
+        }
+    }
+
+    public static long interpretExact(Expression expression) {
+        return new ExactEvaluator(false).evaluate(expression);
+    }
+
+    public static BigInteger interpretUnbounded(Expression expression) {
+        ExactEvaluator evaluator = new ExactEvaluator(true);
+        long value = evaluator.evaluate(expression);
+        return evaluator.bigs[0] != null ? evaluator.bigs[0] : BigInteger.valueOf(value);
+    }
+
+    // Post-order walk along the left spine, as in LinearExpression, so long chains do not exhaust the
+    // call stack; leaves push their value and every operator replaces the top two slots with its result.
+    private long evaluate(Expression expression) {
+        Expression[] path = new Expression[16];
+        boolean[] rightDone = new boolean[16];
+        int depth = 0;
+        top = 0;
+        Expression node = expression;
+        while (true) {
+            node = LinearExpression.unwrap(node);
+            while (ExpressionOptimizer.isBinary(node)) {
+                if (depth == path.length) {
+                    path = Arrays.copyOf(path, depth * 2);
+                    rightDone = Arrays.copyOf(rightDone, depth * 2);
+                }
+                path[depth] = node;
+                rightDone[depth++] = false;
+                node = LinearExpression.unwrap(ExpressionCompiler.left(node));
+            }
+            if (top == values.length) {
+                values = Arrays.copyOf(values, top * 2);
+                bigs = Arrays.copyOf(bigs, top * 2);
+            }
+            values[top] = node instanceof NumberExpression number ? number.getNumber() : node.interpret();
+            bigs[top++] = null;
+            while (depth > 0 && rightDone[depth - 1]) {
+                Expression parent = path[--depth];
+                path[depth] = null;
+                apply(parent);
+            }
+            if (depth == 0) {
+                return values[0];
+            }
+            rightDone[depth - 1] = true;
+            node = ExpressionCompiler.right(path[depth - 1]);
+        }
+    }
+
+    private void apply(Expression node) {
+        int left = top - 2;
+        int right = top - 1;
+        top--;
+        if (bigs[left] == null && bigs[right] == null) {
+            try {
+                if (node instanceof AdditionExpression) {
+                    values[left] = Math.addExact(values[left], values[right]);
+                } else if (node instanceof SubtractionExpression) {
+                    values[left] = Math.subtractExact(values[left], values[right]);
+                } else {
+                    values[left] = Math.multiplyExact(values[left], values[right]);
+                }
+                return;
+            } catch (ArithmeticException e) {
+                if (!promote) {
+                    throw e;
+                }
+            }
+        }
+        BigInteger a = bigs[left] != null ? bigs[left] : BigInteger.valueOf(values[left]);
+        BigInteger b = bigs[right] != null ? bigs[right] : BigInteger.valueOf(values[right]);
+        bigs[right] = null;
+        BigInteger result = node instanceof AdditionExpression ? a.add(b)
+            : node instanceof SubtractionExpression ? a.subtract(b) : a.multiply(b);
+        if (result.compareTo(LONG_MIN) >= 0 && result.compareTo(LONG_MAX) <= 0) {
+            values[left] = result.longValue();
+            bigs[left] = null;
+        } else {
+            values[left] = 0;
+            bigs[left] = result;
+        }
+    }
+}
+
+// An expression lowered to postfix opcodes and run by one loop over a primitive operand stack. Neither
+// flattening nor evaluation recurses, so it handles trees far deeper than interpret() can. The operand
+// stack is allocated once and reused by every call, so an instance is not thread-safe or reentrant.
+class LinearExpression extends Expression {
+    private static final int ADD = 0, SUBTRACT = 1, MULTIPLY = 2, PUSH = 3, CALL = 4;
+
+    private final int[] code;
+    // Leaves that are not plain numbers (variables, compiled trees) are called through interpret().
+    private final Expression[] calls;
+    private final int[] stack;
+
+    private LinearExpression(int[] code, Expression[] calls, int maxStack) {
+        this.code = code;
+        this.calls = calls;
+        this.stack = new int[maxStack];
+    }
+
+    public static LinearExpression flatten(Expression expression) {
+        int[] code = new int[16];
+        int length = 0;
+        List<Expression> calls = new ArrayList<>();
+        int stack = 0;
+        int maxStack = 0;
+
+        // Walk down the left spine, emit the leaf, then climb: a parent whose right side is done emits its
+        // operator, otherwise its right side is walked next. Shared wrappers are looked through.
+        Expression[] path = new Expression[16];
+        boolean[] rightDone = new boolean[16];
+        int depth = 0;
+        Expression node = expression;
+        while (true) {
+            node = unwrap(node);
+            while (ExpressionOptimizer.isBinary(node)) {
+                if (depth == path.length) {
+                    path = Arrays.copyOf(path, depth * 2);
+                    rightDone = Arrays.copyOf(rightDone, depth * 2);
+                }
+                path[depth] = node;
+                rightDone[depth++] = false;
+                node = unwrap(ExpressionCompiler.left(node));
+            }
+            if (length + 2 > code.length) {
+                code = Arrays.copyOf(code, code.length * 2);
+            }
+            if (node instanceof NumberExpression number) {
+                code[length++] = PUSH;
+                code[length++] = number.getNumber();
+            } else {
+                code[length++] = CALL;
+                code[length++] = calls.size();
+                calls.add(node);
+            }
+            maxStack = Math.max(maxStack, ++stack);
+            while (depth > 0 && rightDone[depth - 1]) {
+                Expression parent = path[--depth];
+                path[depth] = null;
+                if (length == code.length) {
+                    code = Arrays.copyOf(code, code.length * 2);
+                }
+                code[length++] = parent instanceof AdditionExpression ? ADD
+                    : parent instanceof SubtractionExpression ? SUBTRACT : MULTIPLY;
+                stack--;
+            }
+            if (depth == 0) {
+                break;
+            }
+            rightDone[depth - 1] = true;
+            node = ExpressionCompiler.right(path[depth - 1]);
+        }
+        return new LinearExpression(Arrays.copyOf(code, length), calls.toArray(new Expression[0]), maxStack);
+    }
+
+    static Expression unwrap(Expression node) {
+        while (true) {
+            if (node instanceof SharedExpression shared) {
+                node = shared.getExpression();
+            } else if (node instanceof Evaluation evaluation) {
+                node = evaluation.getExpression();
+            } else {
+                return node;
+            }
+        }
+    }
+
+    @Override
+    public int interpret() {
+        int[] code = this.code;
+        int[] stack = this.stack;
+        int top = -1;
+        int pc = 0;
+        while (pc < code.length) {
+            switch (code[pc++]) {
+                case ADD:
+                    top--;
+                    stack[top] += stack[top + 1];
+                    break;
+                case SUBTRACT:
+                    top--;
+                    stack[top] -= stack[top + 1];
+                    break;
+                case MULTIPLY:
+                    top--;
+                    stack[top] *= stack[top + 1];
+                    break;
+                case PUSH:
+                    stack[++top] = code[pc++];
+                    break;
+                default:
+                    stack[++top] = calls[code[pc++]].interpret();
+                    break;
+            }
+        }
+        return stack[0];
+    }
+
+    public List<Expression> getCalls() {
+        return List.of(calls);
+    }
+}
+
+// Evaluates the two sides of large operator nodes in parallel on a fork-join pool. Subtree sizes are
+// measured once up front and only nodes at or above the cutoff are remembered; everything else, and any
+// subtree holding a node with per-call state (SharedExpression's per-evaluation cache, MemoizedExpression's
+// table, LinearExpression's operand stack), runs sequentially, since such a node may be reached from
+// both sides of a fork.
+class ParallelExpression extends Expression {
+    private static final int DEFAULT_CUTOFF = 1 << 14;
+
+    private final Expression expression;
+    private final ForkJoinPool pool;
+    private final Set<Expression> forked = Collections.newSetFromMap(new IdentityHashMap<>());
+
+    public ParallelExpression(Expression expression) {
+        this(expression, ForkJoinPool.commonPool(), DEFAULT_CUTOFF);
+    }
+
+    public ParallelExpression(Expression expression, ForkJoinPool pool, int cutoff) {
+        this.expression = expression;
+        this.pool = pool;
+        measure(cutoff);
+    }
+
+    // Post-order walk along the left spine, as in LinearExpression, keeping subtree sizes on a stack.
+    private void measure(int cutoff) {
+        Expression[] path = new Expression[16];
+        boolean[] rightDone = new boolean[16];
+        int[] sizes = new int[16];
+        boolean[] stateful = new boolean[16];
+        int depth = 0;
+        int top = 0;
+        Expression node = expression;
+        while (true) {
+            while (ExpressionOptimizer.isBinary(node)) {
+                if (depth == path.length) {
+                    path = Arrays.copyOf(path, depth * 2);
+                    rightDone = Arrays.copyOf(rightDone, depth * 2);
+                }
+                path[depth] = node;
+                rightDone[depth++] = false;
+                node = ExpressionCompiler.left(node);
+            }
+            if (top + 1 >= sizes.length) {
+                sizes = Arrays.copyOf(sizes, sizes.length * 2);
+                stateful = Arrays.copyOf(stateful, stateful.length * 2);
+            }
+            sizes[top] = 1;
+            stateful[top++] = isStateful(node);
+            while (depth > 0 && rightDone[depth - 1]) {
+                Expression parent = path[--depth];
+                path[depth] = null;
+                top--;
+                sizes[top - 1] = (int) Math.min(Integer.MAX_VALUE, 1L + sizes[top - 1] + sizes[top]);
+                stateful[top - 1] |= stateful[top];
+                if (sizes[top - 1] >= cutoff && !stateful[top - 1]) {
+                    forked.add(parent);
+                }
+            }
+            if (depth == 0) {
+                break;
+            }
+            rightDone[depth - 1] = true;
+            node = ExpressionCompiler.right(path[depth - 1]);
+        }
+    }
+
+    private static boolean isStateful(Expression node) {
+        return node instanceof SharedExpression || node instanceof Evaluation
+            || node instanceof MemoizedExpression || node instanceof LinearExpression;
+    }
+
+    @Override
+    public int interpret() {
+        return forked.isEmpty() ? expression.interpret() : pool.invoke(new Task(expression));
+    }
+
+    public Expression getExpression() {
+        return expression;
+    }
+
+    private final class Task extends RecursiveTask<Integer> {
+        private static final long serialVersionUID = 1L;
+
+        private final Expression node;
+
+        Task(Expression node) {
+            this.node = node;
+        }
+
+        @Override
+        protected Integer compute() {
+            if (!forked.contains(node)) {
+                return node.interpret();
+            }
+            Task left = new Task(ExpressionCompiler.left(node));
+            left.fork();
+            int right = new Task(ExpressionCompiler.right(node)).compute();
+            int value = left.join();
+            if (node instanceof AdditionExpression) {
+                return value + right;
+            } else if (node instanceof SubtractionExpression) {
+                return value - right;
+            }
+            return value * right;
+        }
+    }
+}
+
+// Remembers the value of every operator node it evaluates, keyed by node identity, so a subtree shared
+// by many parents is computed once. Values that read a variable are tied to a generation, which moves
+// on whenever a Table they read from has changed version since the last call; constant subtrees stay
+// cached, and subtrees holding nodes it cannot see into are never cached. The table is open-addressed
+// with a fixed capacity and is simply emptied when it fills up. Not thread-safe.
+class MemoizedExpression extends Expression {
+    private static final int DEFAULT_CAPACITY = 1 << 16;
+    private static final long CONSTANT = -1;
+
+    private final Expression expression;
+    // Tables read so far, with the version the current generation was computed for.
+    private final Map<Table, Long> watched = new IdentityHashMap<>();
+    private final Expression[] keys;
+    private final int[] values;
+    private final long[] generations;
+    private final int mask;
+    private final int shift;
+    private int size;
+    private long generation;
+    // Whether the value just returned by evaluate() depends on a variable, or on a node it cannot see into.
+    private boolean variable;
+    private boolean opaque;
+
+    public MemoizedExpression(Expression expression) {
+        this(expression, DEFAULT_CAPACITY);
+    }
+
+    public MemoizedExpression(Expression expression, int capacity) {
+        int slots = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        this.expression = expression;
+        this.keys = new Expression[slots];
+        this.values = new int[slots];
+        this.generations = new long[slots];
+        this.mask = slots - 1;
+        this.shift = 32 - Integer.numberOfTrailingZeros(slots);
+    }
+
+    @Override
+    public int interpret() {
+        for (Map.Entry<Table, Long> entry : watched.entrySet()) {
+            long version = entry.getKey().getVersion();
+            if (version != entry.getValue()) {
+                entry.setValue(version);
+                generation++;
+            }
+        }
+        return evaluate(expression);
+    }
+
+    public Expression getExpression() {
+        return expression;
+    }
+
+    public void invalidate() {
+        generation++;
+    }
+
+    public void clear() {
+        Arrays.fill(keys, null);
+        size = 0;
+    }
+
+    private int evaluate(Expression node) {
+        if (node instanceof NumberExpression number) {
+            variable = false;
+            opaque = false;
+            return number.getNumber();
+        } else if (node instanceof VariableExpression v) {
+            watched.putIfAbsent(v.getTable(), v.getTable().getVersion());
+            variable = true;
+            opaque = false;
+            return v.interpret();
+        } else if (node instanceof SharedExpression shared) {
+            return evaluate(shared.getExpression());
+        } else if (node instanceof Evaluation evaluation) {
+            return evaluate(evaluation.getExpression());
+        } else if (!ExpressionOptimizer.isBinary(node)) {
+            variable = true;
+            opaque = true;
+            return node.interpret();
+        }
+
+        int slot = slot(node);
+        while (keys[slot] != null) {
+            if (keys[slot] == node) {
+                if (generations[slot] == CONSTANT || generations[slot] == generation) {
+                    variable = generations[slot] != CONSTANT;
+                    opaque = false;
+                    return values[slot];
+                }
+                break;
+            }
+            slot = slot + 1 & mask;
+        }
+
+        int left = evaluate(ExpressionCompiler.left(node));
+        boolean leftVariable = variable;
+        boolean leftOpaque = opaque;
+        int right = evaluate(ExpressionCompiler.right(node));
+        variable |= leftVariable;
+        opaque |= leftOpaque;
+        int value = node instanceof AdditionExpression ? left + right
+            : node instanceof SubtractionExpression ? left - right : left * right;
+        if (!opaque) {
+            store(node, value, variable ? generation : CONSTANT);
+        }
+        return value;
+    }
+
+    private int slot(Expression node) {
+        return System.identityHashCode(node) * 0x9E3779B9 >>> shift;
+    }
+
+    private void store(Expression node, int value, long stamp) {
+        int slot = slot(node);
+        while (keys[slot] != null && keys[slot] != node) {
+            slot = slot + 1 & mask;
+        }
+        if (keys[slot] == null) {
+            if (size + 1 > keys.length * 3 / 4) {
+                clear();
+                store(node, value, stamp);
+                return;
+            }
+            keys[slot] = node;
+            size++;
+        }
+        values[slot] = value;
+        generations[slot] = stamp;
+    }
+}
+
+// Turns an expression tree into a generated subclass of Expression whose interpret() is
+// straight-line bytecode, so the JIT sees one small method instead of a chain of virtual calls.
+// Generated classes are hidden classes, cached by the structure of the tree they were made from.
+class ExpressionCompiler {
+    // HotSpot does not JIT methods longer than HugeMethodLimit (8000 bytes); stay below it.
+    private static final int MAX_CODE_LENGTH = 8000;
+    private static final int MAX_CACHED = 4096;
+    private static final Map<Shape, Expression> cache = new ConcurrentHashMap<>();
+
+    public static Expression compile(Expression expression) {
+        if (!isCompilable(expression)) {
+            return expression;
+        }
+        Shape shape = new Shape(expression);
+        Expression compiled = cache.get(shape);
+        if (compiled == null) {
+            compiled = define(new ClassWriter(expression).toBytes());
+            if (cache.size() >= MAX_CACHED) {
+                cache.clear();
+            }
+            cache.put(shape, compiled);
+        }
+        return compiled;
+    }
+
+    // Trees whose interpret() would be too long to be JIT-compiled stay interpreted.
+    private static boolean isCompilable(Expression expression) {
+        Deque<Expression> pending = new ArrayDeque<>();
+        pending.push(expression);
+        int length = 1;
+        while (!pending.isEmpty()) {
+            Expression node = pending.pop();
+            length += node instanceof NumberExpression number ? pushLength(number.getNumber()) : 1;
+            if (length >= MAX_CODE_LENGTH) {
+                return false;
+            }
+            if (node instanceof AdditionExpression e) {
+                pending.push(e.getLeft());
+                pending.push(e.getRight());
+            } else if (node instanceof SubtractionExpression e) {
+                pending.push(e.getLeft());
+                pending.push(e.getRight());
+            } else if (node instanceof MultiplicationExpression e) {
+                pending.push(e.getLeft());
+                pending.push(e.getRight());
+            } else if (!(node instanceof NumberExpression)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Length of the instruction ClassWriter.push emits for the value.
+    private static int pushLength(int value) {
+        if (value >= -1 && value <= 5) {
+            return 1;
+        }
+        return value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE ? 2 : 3;
+    }
+
+    private static Expression define(byte[] bytes) {
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.lookup().defineHiddenClass(bytes, true);
+            return (Expression) lookup.findConstructor(lookup.lookupClass(), MethodType.methodType(void.class)).invoke();
+        } catch (Throwable e) {
+            throw new IllegalStateException("Cannot define compiled expression", e);
+        }
+    }
+
+    static Expression left(Expression node) {
+        if (node instanceof AdditionExpression e) {
+            return e.getLeft();
+        } else if (node instanceof SubtractionExpression e) {
+            return e.getLeft();
+        }
+        return ((MultiplicationExpression) node).getLeft();
+    }
+
+    static Expression right(Expression node) {
+        if (node instanceof AdditionExpression e) {
+            return e.getRight();
+        } else if (node instanceof SubtractionExpression e) {
+            return e.getRight();
+        }
+        return ((MultiplicationExpression) node).getRight();
+    }
+
+    // Cache key: two trees are the same shape when they have the same operators and numbers.
+    private static final class Shape {
+        private final Expression expression;
+        private final int hash;
+
+        Shape(Expression expression) {
+            this.expression = expression;
+            this.hash = hash(expression);
+        }
+
+        private static int hash(Expression node) {
+            if (node instanceof NumberExpression number) {
+                return number.getNumber();
+            }
+            int operator = node instanceof AdditionExpression ? 1 : node instanceof SubtractionExpression ? 2 : 3;
+            return (operator * 31 + hash(left(node))) * 31 + hash(right(node));
+        }
+
+        private static boolean same(Expression a, Expression b) {
+            if (a instanceof NumberExpression x) {
+                return b instanceof NumberExpression y && x.getNumber() == y.getNumber();
+            }
+            return a.getClass() == b.getClass() && same(left(a), left(b)) && same(right(a), right(b));
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            return other instanceof Shape shape && hash == shape.hash && same(expression, shape.expression);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    // Writes a class file of: final class CompiledExpression extends Expression { int interpret() { ... } }
+    private static final class ClassWriter {
+        private final ByteArrayOutputStream constants = new ByteArrayOutputStream();
+        private final ByteArrayOutputStream code = new ByteArrayOutputStream();
+        private final Map<Integer, Integer> integers = new HashMap<>();
+        private int constantCount = 1;
+        private final int thisClass, superClass, superInit, codeName, interpretName, interpretType, initName, initType;
+        private final int maxStack;
+
+        ClassWriter(Expression expression) {
+            thisClass = classConstant("CompiledExpression");
+            superClass = classConstant("Expression");
+            initName = utf8("<init>");
+            initType = utf8("()V");
+            superInit = constant(10, superClass, constant(12, initName, initType));
+            codeName = utf8("Code");
+            interpretName = utf8("interpret");
+            interpretType = utf8("()I");
+            maxStack = emit(expression);
+            code.write(0xAC);
+        }
+
+        // Returns the operand stack depth the subtree needs.
+        private int emit(Expression node) {
+            if (node instanceof NumberExpression number) {
+                push(number.getNumber());
+                return 1;
+            }
+            int left = emit(left(node));
+            int right = emit(right(node));
+            code.write(node instanceof AdditionExpression ? 0x60 : node instanceof SubtractionExpression ? 0x64 : 0x68);
+            return Math.max(left, right + 1);
+        }
+
+        private void push(int value) {
+            if (value >= -1 && value <= 5) {
+                code.write(0x03 + value);
+            } else if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) {
+                code.write(0x10);
+                code.write(value);
+            } else if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE) {
+                code.write(0x11);
+                writeShort(code, value);
+            } else {
+                code.write(0x13);
+                writeShort(code, integers.computeIfAbsent(value, this::integer));
+            }
+        }
+
+        byte[] toBytes() {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            writeInt(out, 0xCAFEBABE);
+            writeShort(out, 0);
+            writeShort(out, 52);
+            writeShort(out, constantCount);
+            out.writeBytes(constants.toByteArray());
+            writeShort(out, 0x0010 | 0x0020);
+            writeShort(out, thisClass);
+            writeShort(out, superClass);
+            writeShort(out, 0);
+            writeShort(out, 0);
+            writeShort(out, 2);
+
+            byte[] init = {0x2A, (byte) 0xB7, (byte) (superInit >> 8), (byte) superInit, (byte) 0xB1};
+            writeMethod(out, 0x0001, initName, initType, 1, 1, init);
+            writeMethod(out, 0x0001, interpretName, interpretType, maxStack, 1, code.toByteArray());
+            writeShort(out, 0);
+            return out.toByteArray();
+        }
+
+        private void writeMethod(ByteArrayOutputStream out, int access, int name, int type, int stack, int locals, byte[] body) {
+            writeShort(out, access);
+            writeShort(out, name);
+            writeShort(out, type);
+            writeShort(out, 1);
+            writeShort(out, codeName);
+            writeInt(out, 12 + body.length);
+            writeShort(out, stack);
+            writeShort(out, locals);
+            writeInt(out, body.length);
+            out.writeBytes(body);
+            writeShort(out, 0);
+            writeShort(out, 0);
+        }
+
+        private int utf8(String value) {
+            constants.write(1);
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            writeShort(constants, bytes.length);
+            constants.writeBytes(bytes);
+            return constantCount++;
+        }
+
+        private int classConstant(String name) {
+            return constant(7, utf8(name));
+        }
+
+        private int integer(int value) {
+            constants.write(3);
+            writeInt(constants, value);
+            return constantCount++;
+        }
+
+        private int constant(int tag, int... references) {
+            constants.write(tag);
+            for (int reference : references) {
+                writeShort(constants, reference);
+            }
+            return constantCount++;
+        }
+
+        private static void writeShort(ByteArrayOutputStream out, int value) {
+            out.write(value >>> 8);
+            out.write(value);
+        }
+
+        private static void writeInt(ByteArrayOutputStream out, int value) {
+            writeShort(out, value >>> 16);
+            writeShort(out, value);
+        }
+    }
+}
+
+// Evaluates an expression over many rows at once. Rows are processed a tile at a time: each node
+// fills a tile-sized buffer with one tight loop, which the JIT unrolls and vectorizes, and the
+// buffers stay in cache while the tree is walked once per tile instead of once per row.
+// Nodes it has no loop for are interpreted row by row, with every Table read in the tree moved
+// to that row; such nodes must not read Tables other than through the variables it can reach.
+class BatchEvaluator {
+    private static final int TILE = 1024;
+    // What an operator on the walk stack is waiting for.
+    private static final byte START = 0, LEFT_DONE = 1, RIGHT_DONE = 2, RIGHT_FIRST_DONE = 3;
+
+    private int[][] buffers = new int[8][];
+    private Expression[] nodes = new Expression[16];
+    private int[] depths = new int[16];
+    private byte[] stages = new byte[16];
+    private int top;
+    private Expression root;
+    private List<Table> tables;
+
+    public void interpret(Expression expression, int[] out) {
+        root = expression;
+        tables = null;
+        for (int from = 0; from < out.length; from += TILE) {
+            int length = Math.min(TILE, out.length - from);
+            System.arraycopy(evaluate(expression, from, length), 0, out, from, length);
+        }
+    }
+
+    // Walks the tree with an explicit stack, so long operator chains do not exhaust the call stack. Each
+    // operator leaves its tile in buffer(depth) and a right operand that is not a number or variable
+    // uses the buffer below it, unless the left operand is one: then the right side is evaluated in
+    // place and the left operand applied afterwards, so chains leaning either way need two buffers.
+    private int[] evaluate(Expression expression, int from, int length) {
+        top = 0;
+        descend(LinearExpression.unwrap(expression), 0, from, length);
+        while (top > 0) {
+            int frame = top - 1;
+            Expression node = nodes[frame];
+            int depth = depths[frame];
+            int[] result = buffer(depth);
+            Expression left = LinearExpression.unwrap(ExpressionCompiler.left(node));
+            Expression right = LinearExpression.unwrap(ExpressionCompiler.right(node));
+            switch (stages[frame]) {
+                case START:
+                    if (!isLeaf(right) && isLeaf(left)) {
+                        stages[frame] = RIGHT_FIRST_DONE;
+                        descend(right, depth, from, length);
+                    } else {
+                        stages[frame] = LEFT_DONE;
+                        descend(left, depth, from, length);
+                    }
+                    break;
+                case LEFT_DONE:
+                    if (right instanceof NumberExpression number) {
+                        combine(node, result, number.getNumber(), length);
+                    } else if (right instanceof VariableExpression variable) {
+                        combine(node, result, variable.getTable().getColumn(variable.getColumn()), from, length);
+                    } else {
+                        stages[frame] = RIGHT_DONE;
+                        descend(right, depth + 1, from, length);
+                        break;
+                    }
+                    nodes[--top] = null;
+                    break;
+                case RIGHT_DONE:
+                    combine(node, result, buffer(depth + 1), 0, length);
+                    nodes[--top] = null;
+                    break;
+                default:
+                    if (left instanceof NumberExpression number) {
+                        combineReversed(node, result, number.getNumber(), length);
+                    } else {
+                        VariableExpression variable = (VariableExpression) left;
+                        combineReversed(node, result, variable.getTable().getColumn(variable.getColumn()), from, length);
+                    }
+                    nodes[--top] = null;
+                    break;
+            }
+        }
+        return buffer(0);
+    }
+
+    // Fills buffer(depth) with a leaf, or pushes an operator to be walked.
+    private void descend(Expression node, int depth, int from, int length) {
+        if (ExpressionOptimizer.isBinary(node)) {
+            if (top == nodes.length) {
+                nodes = Arrays.copyOf(nodes, top * 2);
+                depths = Arrays.copyOf(depths, top * 2);
+                stages = Arrays.copyOf(stages, top * 2);
+            }
+            nodes[top] = node;
+            depths[top] = depth;
+            stages[top++] = START;
+            return;
+        }
+        int[] result = buffer(depth);
+        if (node instanceof NumberExpression number) {
+            Arrays.fill(result, 0, length, number.getNumber());
+        } else if (node instanceof VariableExpression variable) {
+            System.arraycopy(variable.getTable().getColumn(variable.getColumn()), from, result, 0, length);
+        } else {
+            interpretRows(node, result, from, length);
+        }
+    }
+
+    private static boolean isLeaf(Expression node) {
+        return node instanceof NumberExpression || node instanceof VariableExpression;
+    }
+
+    private void interpretRows(Expression node, int[] result, int from, int length) {
+        if (tables == null) {
+            tables = tables(root);
+        }
+        int[] rows = new int[tables.size()];
+        for (int t = 0; t < rows.length; t++) {
+            rows[t] = tables.get(t).getRow();
+        }
+        try {
+            for (int i = 0; i < length; i++) {
+                for (Table table : tables) {
+                    table.setRow(from + i);
+                }
+                result[i] = node.interpret();
+            }
+        } finally {
+            for (int t = 0; t < rows.length; t++) {
+                tables.get(t).setRow(rows[t]);
+            }
+        }
+    }
+
+    // Tables of the variables reachable from the expression, looking inside the wrappers of this file.
+    private static List<Table> tables(Expression expression) {
+        Set<Table> tables = Collections.newSetFromMap(new IdentityHashMap<>());
+        Set<Expression> seen = Collections.newSetFromMap(new IdentityHashMap<>());
+        Deque<Expression> pending = new ArrayDeque<>();
+        pending.push(expression);
+        while (!pending.isEmpty()) {
+            Expression node = pending.pop();
+            if (!seen.add(node)) {
+                continue;
+            }
+            if (node instanceof VariableExpression variable) {
+                tables.add(variable.getTable());
+            } else if (ExpressionOptimizer.isBinary(node)) {
+                pending.push(ExpressionCompiler.left(node));
+                pending.push(ExpressionCompiler.right(node));
+            } else if (node instanceof SharedExpression shared) {
+                pending.push(shared.getExpression());
+            } else if (node instanceof Evaluation evaluation) {
+                pending.push(evaluation.getExpression());
+            } else if (node instanceof MemoizedExpression memoized) {
+                pending.push(memoized.getExpression());
+            } else if (node instanceof ParallelExpression parallel) {
+                pending.push(parallel.getExpression());
+            } else if (node instanceof LinearExpression linear) {
+                linear.getCalls().forEach(pending::push);
+            }
+        }
+        return new ArrayList<>(tables);
+    }
+
+    private static void combine(Expression node, int[] result, int[] right, int offset, int length) {
+        if (node instanceof AdditionExpression) {
+            for (int i = 0; i < length; i++) {
+                result[i] += right[offset + i];
+            }
+        } else if (node instanceof SubtractionExpression) {
+            for (int i = 0; i < length; i++) {
+                result[i] -= right[offset + i];
+            }
+        } else {
+            for (int i = 0; i < length; i++) {
+                result[i] *= right[offset + i];
+            }
+        }
+    }
+
+    // result = left op result, for operators whose right side was evaluated first.
+    private static void combineReversed(Expression node, int[] result, int[] left, int offset, int length) {
+        if (node instanceof SubtractionExpression) {
+            for (int i = 0; i < length; i++) {
+                result[i] = left[offset + i] - result[i];
+            }
+        } else {
+            combine(node, result, left, offset, length);
+        }
+    }
+
+    private static void combineReversed(Expression node, int[] result, int left, int length) {
+        if (node instanceof SubtractionExpression) {
+            for (int i = 0; i < length; i++) {
+                result[i] = left - result[i];
+            }
+        } else {
+            combine(node, result, left, length);
+        }
+    }
+
+    private static void combine(Expression node, int[] result, int right, int length) {
+        if (node instanceof AdditionExpression) {
+            for (int i = 0; i < length; i++) {
+                result[i] += right;
+            }
+        } else if (node instanceof SubtractionExpression) {
+            for (int i = 0; i < length; i++) {
+                result[i] -= right;
+            }
+        } else {
+            for (int i = 0; i < length; i++) {
+                result[i] *= right;
+            }
+        }
+    }
+
+    private int[] buffer(int depth) {
+        if (depth >= buffers.length) {
+            buffers = Arrays.copyOf(buffers, Math.max(depth + 1, buffers.length * 2));
+        }
+        if (buffers[depth] == null) {
+            buffers[depth] = new int[TILE];
+        }
+        return buffers[depth];
+    }
 }
 
 public class Interpreter {
@@ -69,5 +1451,30 @@ public class Interpreter {
 
         int result = expression.interpret();
         System.out.println(result);
+
+        Expression compiled = ExpressionCompiler.compile(expression);
+        System.out.println(compiled.interpret());
+
+        Table table = new Table(new int[]{1, 2, 3, 4}, new int[]{10, 20, 30, 40});
+        Expression formula = new AdditionExpression(
+            new MultiplicationExpression(new VariableExpression(table, 0), new VariableExpression(table, 0)),
+            new VariableExpression(table, 1)
+        );
+        int[] results = new int[table.getRows()];
+        new BatchEvaluator().interpret(formula, results);
+        System.out.println(Arrays.toString(results));
+
+        Expression large = new ExpressionParser().parse("2147483647 * 2147483647 * 2147483647 - 1");
+        System.out.println(large.interpret() + " " + ExactEvaluator.evaluate(large, Arithmetic.UNBOUNDED));
+
+        Expression chain = new NumberExpression(0);
+        for (int i = 1; i <= 1_000_000; i++) {
+            chain = new AdditionExpression(chain, new NumberExpression(i));
+        }
+        System.out.println(LinearExpression.flatten(chain).interpret());
+
+        Expression parsed = new ExpressionParser(table, "x", "y").parse("(x * x + y) * (x * x + y) + y * 1 + 0 * x");
+        new BatchEvaluator().interpret(ExpressionOptimizer.optimize(parsed), results);
+        System.out.println(Arrays.toString(results));
     }
 }
@@ -1,29 +1,570 @@
-class Logger { 
-    private static Logger unique;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
 
-    private Logger() { }
+enum Level {
+    DEBUG, INFO, WARN, ERROR
+}
+
+// Messages are encoded into a fixed ring of byte slots claimed with an atomic counter, so log() never
+// locks, blocks on I/O or allocates; a daemon thread drains published slots in order and writes them in
+// batches. Templates use {} placeholders and are only formatted when their level is enabled, into a
+// per-thread StringBuilder that is reused across calls.
+class Logger {
+    private static final int CAPACITY = 1 << 14;
+    private static final int SLOT_SIZE = 256;
+    private static final long IDLE_NANOS = 1_000_000;
+    private static final VarHandle TAIL;
+    private static final VarHandle HEAD;
+    private static final VarHandle PUBLISHED = MethodHandles.arrayElementVarHandle(long[].class);
+
+    static {
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.lookup();
+            TAIL = lookup.findVarHandle(Logger.class, "tail", long.class);
+            HEAD = lookup.findVarHandle(Logger.class, "head", long.class);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private static final class Holder {
+        static final Logger INSTANCE = new Logger(new ConsoleAppender(Channels.newChannel(new FileOutputStream(FileDescriptor.out))));
+    }
+
+    private final ThreadLocal<StringBuilder> builders = ThreadLocal.withInitial(() -> new StringBuilder(SLOT_SIZE));
+    private final byte[] slots = new byte[CAPACITY * SLOT_SIZE];
+    // Encoded length of each slot, or -1 when the message did not fit and sits in oversized[] instead.
+    private final int[] lengths = new int[CAPACITY];
+    private final String[] oversized = new String[CAPACITY];
+    private final Level[] levels = new Level[CAPACITY];
+    private final long[] timestamps = new long[CAPACITY];
+    // published[i] is the sequence whose message sits in slot i, written last so the writer can trust the slot.
+    private final long[] published = new long[CAPACITY];
+    private final Thread writer;
+    private volatile LogAppender appender;
+    private volatile Level level = Level.INFO;
+    private volatile long tail;
+    private volatile long head;
+    // Only written by the writer thread.
+    private volatile long dropped;
+
+    private Logger(LogAppender appender) {
+        this.appender = appender;
+        Arrays.fill(published, -1);
+        writer = new Thread(this::drain, "logger-writer");
+        writer.setDaemon(true);
+        writer.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(this::flush));
+    }
 
     public static Logger getInstance() {
-        if (unique == null) {
-            synchronized (unique) {
-                if (unique == null) {
-                    unique = new Logger();
+        return Holder.INSTANCE;
+    }
+
+    // Takes effect from the next batch the writer thread drains; flush() first to keep earlier messages
+    // on the old appender.
+    public void setAppender(LogAppender appender) {
+        this.appender = appender;
+    }
+
+    public void setLevel(Level level) {
+        this.level = level;
+    }
+
+    public boolean isEnabled(Level level) {
+        return level.compareTo(this.level) >= 0;
+    }
+
+    // Records the appender failed to write, counted since startup.
+    public long getDroppedRecords() {
+        return dropped;
+    }
+
+    public void log(String message) {
+        log(Level.INFO, message);
+    }
+
+    public void log(Level level, String message) {
+        if (isEnabled(level)) {
+            publish(level, message);
+        }
+    }
+
+    public void log(Level level, String template, Object argument) {
+        if (isEnabled(level)) {
+            StringBuilder builder = start();
+            int from = appendUntilPlaceholder(builder, template, 0);
+            builder.append(argument);
+            publish(level, finish(builder, template, from));
+        }
+    }
+
+    public void log(Level level, String template, long argument) {
+        if (isEnabled(level)) {
+            StringBuilder builder = start();
+            int from = appendUntilPlaceholder(builder, template, 0);
+            builder.append(argument);
+            publish(level, finish(builder, template, from));
+        }
+    }
+
+    public void log(Level level, String template, double argument) {
+        if (isEnabled(level)) {
+            StringBuilder builder = start();
+            int from = appendUntilPlaceholder(builder, template, 0);
+            builder.append(argument);
+            publish(level, finish(builder, template, from));
+        }
+    }
+
+    public void log(Level level, String template, Object first, Object second) {
+        if (isEnabled(level)) {
+            StringBuilder builder = start();
+            int from = appendUntilPlaceholder(builder, template, 0);
+            builder.append(first);
+            from = appendUntilPlaceholder(builder, template, from);
+            builder.append(second);
+            publish(level, finish(builder, template, from));
+        }
+    }
+
+    public void log(Level level, String template, Object first, long second) {
+        if (isEnabled(level)) {
+            StringBuilder builder = start();
+            int from = appendUntilPlaceholder(builder, template, 0);
+            builder.append(first);
+            from = appendUntilPlaceholder(builder, template, from);
+            builder.append(second);
+            publish(level, finish(builder, template, from));
+        }
+    }
+
+    public void log(Level level, String template, long first, Object second) {
+        if (isEnabled(level)) {
+            StringBuilder builder = start();
+            int from = appendUntilPlaceholder(builder, template, 0);
+            builder.append(first);
+            from = appendUntilPlaceholder(builder, template, from);
+            builder.append(second);
+            publish(level, finish(builder, template, from));
+        }
+    }
+
+    public void log(Level level, String template, long first, long second) {
+        if (isEnabled(level)) {
+            StringBuilder builder = start();
+            int from = appendUntilPlaceholder(builder, template, 0);
+            builder.append(first);
+            from = appendUntilPlaceholder(builder, template, from);
+            builder.append(second);
+            publish(level, finish(builder, template, from));
+        }
+    }
+
+    // Waits until everything logged before this call has been written out.
+    public void flush() {
+        long target = (long) TAIL.getVolatile(this);
+        while ((long) HEAD.getAcquire(this) < target) {
+            LockSupport.unpark(writer);
+            Thread.yield();
+        }
+    }
+
+    private StringBuilder start() {
+        StringBuilder builder = builders.get();
+        builder.setLength(0);
+        return builder;
+    }
+
+    // Appends the template from `from` up to the next {} and returns the index after it; with no
+    // placeholder left the rest of the template is appended and its length returned.
+    private static int appendUntilPlaceholder(StringBuilder builder, String template, int from) {
+        int placeholder = template.indexOf("{}", from);
+        if (placeholder < 0) {
+            builder.append(template, from, template.length());
+            return template.length();
+        }
+        builder.append(template, from, placeholder);
+        return placeholder + 2;
+    }
+
+    private static StringBuilder finish(StringBuilder builder, String template, int from) {
+        return builder.append(template, from, template.length());
+    }
+
+    private void publish(Level level, CharSequence message) {
+        long sequence = (long) TAIL.getAndAdd(this, 1L);
+        while (sequence - (long) HEAD.getAcquire(this) >= CAPACITY) {
+            Thread.onSpinWait();
+        }
+        int slot = (int) sequence & (CAPACITY - 1);
+        int length = encode(message, slot * SLOT_SIZE);
+        if (length < 0) {
+            oversized[slot] = message.toString();
+        }
+        lengths[slot] = length;
+        levels[slot] = level;
+        timestamps[slot] = System.currentTimeMillis();
+        PUBLISHED.setRelease(published, slot, sequence);
+    }
+
+    // Writes the message as UTF-8 into its slot and returns the byte count, or -1 if it does not fit.
+    private int encode(CharSequence message, int offset) {
+        int end = offset + SLOT_SIZE;
+        int position = offset;
+        for (int i = 0; i < message.length(); i++) {
+            int c = message.charAt(i);
+            if (Character.isHighSurrogate((char) c) && i + 1 < message.length()
+                    && Character.isLowSurrogate(message.charAt(i + 1))) {
+                c = Character.toCodePoint((char) c, message.charAt(++i));
+            } else if (Character.isSurrogate((char) c)) {
+                c = '?';
+            }
+            int size = c < 0x80 ? 1 : c < 0x800 ? 2 : c < 0x10000 ? 3 : 4;
+            if (position + size > end) {
+                return -1;
+            }
+            if (size == 1) {
+                slots[position++] = (byte) c;
+            } else if (size == 2) {
+                slots[position++] = (byte) (0xC0 | c >> 6);
+                slots[position++] = (byte) (0x80 | c & 0x3F);
+            } else if (size == 3) {
+                slots[position++] = (byte) (0xE0 | c >> 12);
+                slots[position++] = (byte) (0x80 | c >> 6 & 0x3F);
+                slots[position++] = (byte) (0x80 | c & 0x3F);
+            } else {
+                slots[position++] = (byte) (0xF0 | c >> 18);
+                slots[position++] = (byte) (0x80 | c >> 12 & 0x3F);
+                slots[position++] = (byte) (0x80 | c >> 6 & 0x3F);
+                slots[position++] = (byte) (0x80 | c & 0x3F);
+            }
+        }
+        return position - offset;
+    }
+
+    private void drain() {
+        long next = 0;
+        while (true) {
+            long start = next;
+            long appended = 0;
+            LogAppender appender = this.appender;
+            while (next - start < CAPACITY) {
+                int slot = (int) next & (CAPACITY - 1);
+                if ((long) PUBLISHED.getAcquire(published, slot) != next) {
+                    break;
+                }
+                // A record the appender cannot write is dropped rather than stalling every producer; any
+                // exception escaping here would end this thread and leave producers and flush() spinning.
+                try {
+                    if (lengths[slot] < 0) {
+                        byte[] bytes = oversized[slot].getBytes(StandardCharsets.UTF_8);
+                        oversized[slot] = null;
+                        appender.append(timestamps[slot], levels[slot], bytes, 0, bytes.length);
+                    } else {
+                        appender.append(timestamps[slot], levels[slot], slots, slot * SLOT_SIZE, lengths[slot]);
+                    }
+                    appended++;
+                } catch (IOException | RuntimeException e) {
+                    dropped++;
                 }
+                next++;
             }
+            if (next != start) {
+                try {
+                    appender.endBatch();
+                } catch (IOException | RuntimeException e) {
+                    dropped += appended;
+                }
+            }
+            if (next == start) {
+                LockSupport.parkNanos(IDLE_NANOS);
+                continue;
+            }
+            HEAD.setRelease(this, next);
         }
-        return unique;
+    }
+}
+
+// Receives records on the logger's writer thread, in order; endBatch() follows each drained batch.
+interface LogAppender {
+    void append(long timestamp, Level level, byte[] message, int offset, int length) throws IOException;
+
+    void endBatch() throws IOException;
+}
+
+// Writes each message as a line of text to a channel, buffering a whole batch per write.
+class ConsoleAppender implements LogAppender {
+    private static final int BUFFER_SIZE = 1 << 16;
+    private static final byte[] LINE_SEPARATOR = System.lineSeparator().getBytes(StandardCharsets.UTF_8);
+
+    private final WritableByteChannel channel;
+    private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+
+    public ConsoleAppender(WritableByteChannel channel) {
+        this.channel = channel;
     }
 
-    public void log(String message) {
-        System.out.println(message);
+    @Override
+    public void append(long timestamp, Level level, byte[] message, int offset, int length) throws IOException {
+        put(message, offset, length);
+        put(LINE_SEPARATOR, 0, LINE_SEPARATOR.length);
+    }
+
+    @Override
+    public void endBatch() throws IOException {
+        write();
+    }
+
+    private void put(byte[] bytes, int offset, int length) throws IOException {
+        if (length > buffer.remaining()) {
+            write();
+        }
+        if (length > buffer.capacity()) {
+            writeFully(ByteBuffer.wrap(bytes, offset, length));
+        } else {
+            buffer.put(bytes, offset, length);
+        }
+    }
+
+    private void write() throws IOException {
+        buffer.flip();
+        try {
+            writeFully(buffer);
+        } finally {
+            buffer.clear();
+        }
+    }
+
+    private void writeFully(ByteBuffer bytes) throws IOException {
+        while (bytes.hasRemaining()) {
+            channel.write(bytes);
+        }
+    }
+}
+
+// Appends binary records to fixed-size memory-mapped segment files named log-000000.seg, log-000001.seg, ...
+// in one directory, starting a new segment when a record does not fit. A segment starts with MAGIC and
+// VERSION; each record is [int length][byte level][long timestamp millis][length bytes of UTF-8 message]
+// and a zero length marks the end of the written part. The page cache does the actual I/O; force() is
+// called when forceIntervalMillis has passed since the last one (0 forces every batch, negative never).
+class MappedFileAppender implements LogAppender {
+    static final int MAGIC = 0x4C4F4753;
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 8;
+    static final int RECORD_HEADER_SIZE = 13;
+
+    private final Path directory;
+    private final int segmentSize;
+    private final long forceIntervalMillis;
+    private MappedByteBuffer segment;
+    private int segmentIndex = -1;
+    private long lastForce;
+
+    public MappedFileAppender(Path directory, int segmentSize, long forceIntervalMillis) throws IOException {
+        if (segmentSize < HEADER_SIZE + RECORD_HEADER_SIZE + 4) {
+            throw new IllegalArgumentException("Segment size too small: " + segmentSize);
+        }
+        this.directory = Files.createDirectories(directory);
+        this.segmentSize = segmentSize;
+        this.forceIntervalMillis = forceIntervalMillis;
+        while (Files.exists(segmentPath(directory, segmentIndex + 1))) {
+            segmentIndex++;
+        }
+        roll();
+    }
+
+    static Path segmentPath(Path directory, int index) {
+        return directory.resolve(String.format("log-%06d.seg", index));
+    }
+
+    @Override
+    public void append(long timestamp, Level level, byte[] message, int offset, int length) throws IOException {
+        int size = RECORD_HEADER_SIZE + Math.min(length, segmentSize - HEADER_SIZE - RECORD_HEADER_SIZE - 4);
+        // Keep room for the zero length that ends the segment.
+        if (segment.remaining() < size + 4) {
+            roll();
+        }
+        segment.putInt(size - RECORD_HEADER_SIZE);
+        segment.put((byte) level.ordinal());
+        segment.putLong(timestamp);
+        segment.put(message, offset, size - RECORD_HEADER_SIZE);
+    }
+
+    @Override
+    public void endBatch() {
+        long now = System.currentTimeMillis();
+        if (forceIntervalMillis >= 0 && now - lastForce >= forceIntervalMillis) {
+            segment.force();
+            lastForce = now;
+        }
+    }
+
+    private void roll() throws IOException {
+        if (segment != null) {
+            segment.force();
+        }
+        segmentIndex++;
+        try (FileChannel channel = FileChannel.open(segmentPath(directory, segmentIndex),
+                StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            segment = channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+        }
+        segment.putInt(MAGIC);
+        segment.putInt(VERSION);
+    }
+}
+
+// Prints the records of a MappedFileAppender directory as text: java LogDecoder <directory>
+class LogDecoder {
+    public static void main(String[] args) throws IOException {
+        Path directory = Path.of(args.length > 0 ? args[0] : ".");
+        Level[] levels = Level.values();
+        PrintStream out = new PrintStream(new BufferedOutputStream(new FileOutputStream(FileDescriptor.out), 1 << 16), false);
+        for (int index = 0; Files.exists(MappedFileAppender.segmentPath(directory, index)); index++) {
+            ByteBuffer segment = ByteBuffer.wrap(Files.readAllBytes(MappedFileAppender.segmentPath(directory, index)));
+            if (segment.remaining() < MappedFileAppender.HEADER_SIZE || segment.getInt() != MappedFileAppender.MAGIC
+                    || segment.getInt() != MappedFileAppender.VERSION) {
+                throw new IOException("Not a log segment: " + MappedFileAppender.segmentPath(directory, index));
+            }
+            while (segment.remaining() >= MappedFileAppender.RECORD_HEADER_SIZE) {
+                int length = segment.getInt();
+                if (length <= 0 || length > segment.remaining() - MappedFileAppender.RECORD_HEADER_SIZE + 4) {
+                    break;
+                }
+                // A torn or garbled record ends the segment, like the zero length does.
+                int ordinal = segment.get();
+                if (ordinal < 0 || ordinal >= levels.length) {
+                    break;
+                }
+                Level level = levels[ordinal];
+                long timestamp = segment.getLong();
+                String message = new String(segment.array(), segment.position(), length, StandardCharsets.UTF_8);
+                segment.position(segment.position() + length);
+                out.println(Instant.ofEpochMilli(timestamp) + " " + level + " " + message);
+            }
+        }
+        out.flush();
+    }
+}
+
+// Measures log() from 1 to 64 producer threads into an appender that discards its output, and prints the
+// throughput and a histogram of call latencies in power-of-two nanosecond buckets:
+// java LogBenchmark [messages per thread count]
+class LogBenchmark {
+    private static final int MAX_THREADS = 64;
+
+    public static void main(String[] args) throws InterruptedException {
+        int messages = args.length > 0 ? Integer.parseInt(args[0]) : 1 << 21;
+        Logger logger = Logger.getInstance();
+        logger.flush();
+        logger.setAppender(new ConsoleAppender(Channels.newChannel(OutputStream.nullOutputStream())));
+        for (int threads = 1; threads <= MAX_THREADS; threads *= 2) {
+            int perThread = messages / threads;
+            long[][] histograms = new long[threads][Long.SIZE];
+            Thread[] producers = new Thread[threads];
+            long droppedBefore = logger.getDroppedRecords();
+            long started = System.nanoTime();
+            for (int t = 0; t < threads; t++) {
+                long[] histogram = histograms[t];
+                producers[t] = new Thread(() -> {
+                    for (int i = 0; i < perThread; i++) {
+                        long start = System.nanoTime();
+                        logger.log(Level.INFO, "benchmark message {}", i);
+                        histogram[Long.SIZE - 1 - Long.numberOfLeadingZeros(Math.max(1, System.nanoTime() - start))]++;
+                    }
+                });
+                producers[t].start();
+            }
+            for (Thread producer : producers) {
+                producer.join();
+            }
+            logger.flush();
+            long elapsed = System.nanoTime() - started;
+
+            long[] histogram = new long[Long.SIZE];
+            for (long[] local : histograms) {
+                for (int bucket = 0; bucket < Long.SIZE; bucket++) {
+                    histogram[bucket] += local[bucket];
+                }
+            }
+            long total = (long) perThread * threads;
+            System.out.printf("%d threads: %.1f M messages/s, p50 < %d ns, p99 < %d ns, p99.9 < %d ns, %d dropped%n", threads,
+                total * 1e3 / elapsed, percentile(histogram, total, 0.5), percentile(histogram, total, 0.99),
+                percentile(histogram, total, 0.999), logger.getDroppedRecords() - droppedBefore);
+            for (int bucket = 0; bucket < Long.SIZE; bucket++) {
+                if (histogram[bucket] > 0) {
+                    System.out.printf("  < %12d ns %12d %6.2f%%%n", 2L << bucket, histogram[bucket], histogram[bucket] * 100.0 / total);
+                }
+            }
+        }
+    }
+
+    // Upper bound of the bucket holding the given fraction of the calls.
+    private static long percentile(long[] histogram, long total, double fraction) {
+        long seen = 0;
+        for (int bucket = 0; bucket < histogram.length; bucket++) {
+            seen += histogram[bucket];
+            if (seen >= total * fraction) {
+                return 2L << bucket;
+            }
+        }
+        return Long.MAX_VALUE;
     }
 }
 
 abstract class DocumentState {
     public abstract void handleInput(String input);
+
+    public abstract DocumentStatus getStatus();
 }
 
 class DraftState extends DocumentState {
+    @Override
+    public DocumentStatus getStatus() {
+        return DocumentStatus.DRAFT;
+    }
+
     @Override
     public void handleInput(String input) {
         System.out.println("Draft State: Handling input - " + input);
@@ -31,6 +572,11 @@ class DraftState extends DocumentState {
 }
 
 class ReviewState extends DocumentState {
+    @Override
+    public DocumentStatus getStatus() {
+        return DocumentStatus.REVIEW;
+    }
+
     @Override
     public void handleInput(String input) {
         System.out.println("Review State: Handling input - " + input);
@@ -38,66 +584,1348 @@ class ReviewState extends DocumentState {
 }
 
 class FinalState extends DocumentState {
+    @Override
+    public DocumentStatus getStatus() {
+        return DocumentStatus.FINAL;
+    }
+
     @Override
     public void handleInput(String input) {
         System.out.println("Final State: Handling input - " + input);
     }
 }
 
+enum DocumentStatus {
+    DRAFT(new DraftState()), REVIEW(new ReviewState()), FINAL(new FinalState());
+
+    private static final DocumentStatus[] VALUES = values();
+
+    private final DocumentState state;
+    private final String label;
+
+    DocumentStatus(DocumentState state) {
+        this.state = state;
+        this.label = state.getClass().getSimpleName();
+    }
+
+    public static DocumentStatus of(int ordinal) {
+        return VALUES[ordinal];
+    }
+
+    public DocumentState getState() {
+        return state;
+    }
+
+    public String getLabel() {
+        return label;
+    }
+}
+
+enum DocumentEvent {
+    SUBMIT, APPROVE, REJECT
+}
+
+// Transition table indexed by [status ordinal * event count + event ordinal], holding the next status
+// ordinal or NONE. Documents keep their status as an int and move through compareAndSet, so any number
+// of threads can send events to the same document.
+final class DocumentStateMachine {
+    static final int NONE = -1;
+    private static final int STATES = DocumentStatus.values().length;
+    private static final int EVENTS = DocumentEvent.values().length;
+    private static final int[] NEXT = new int[STATES * EVENTS];
+    private static final boolean[] ALLOWED = new boolean[STATES * STATES];
+
+    static {
+        Arrays.fill(NEXT, NONE);
+        allow(DocumentStatus.DRAFT, DocumentEvent.SUBMIT, DocumentStatus.REVIEW);
+        allow(DocumentStatus.REVIEW, DocumentEvent.APPROVE, DocumentStatus.FINAL);
+        allow(DocumentStatus.REVIEW, DocumentEvent.REJECT, DocumentStatus.DRAFT);
+    }
+
+    private DocumentStateMachine() { }
+
+    private static void allow(DocumentStatus from, DocumentEvent event, DocumentStatus to) {
+        NEXT[from.ordinal() * EVENTS + event.ordinal()] = to.ordinal();
+        ALLOWED[from.ordinal() * STATES + to.ordinal()] = true;
+    }
+
+    static int next(int status, DocumentEvent event) {
+        return NEXT[status * EVENTS + event.ordinal()];
+    }
+
+    static boolean isAllowed(int from, int to) {
+        return ALLOWED[from * STATES + to];
+    }
+
+    // Sends events[i] to documents[i] for every i in [from, to) and returns how many were accepted.
+    public static int process(Document[] documents, DocumentEvent[] events, int from, int to) {
+        int accepted = 0;
+        for (int i = from; i < to; i++) {
+            if (documents[i].fire(events[i])) {
+                accepted++;
+            }
+        }
+        return accepted;
+    }
+
+    public static int processParallel(Document[] documents, DocumentEvent[] events) {
+        return ForkJoinPool.commonPool().invoke(new Batch(documents, events, 0, documents.length));
+    }
+
+    private static final class Batch extends RecursiveTask<Integer> {
+        private static final long serialVersionUID = 1L;
+        private static final int THRESHOLD = 1 << 14;
+
+        private final Document[] documents;
+        private final DocumentEvent[] events;
+        private final int from;
+        private final int to;
+
+        Batch(Document[] documents, DocumentEvent[] events, int from, int to) {
+            this.documents = documents;
+            this.events = events;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected Integer compute() {
+            if (to - from <= THRESHOLD) {
+                return process(documents, events, from, to);
+            }
+            int middle = (from + to) >>> 1;
+            Batch left = new Batch(documents, events, from, middle);
+            left.fork();
+            int right = new Batch(documents, events, middle, to).compute();
+            return left.join() + right;
+        }
+    }
+}
+
 class Document {
-    private DocumentState currentState;
+    private static final VarHandle STATUS;
+
+    static {
+        try {
+            STATUS = MethodHandles.lookup().findVarHandle(Document.class, "status", int.class);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private volatile int status;
+    private volatile long id = -1;
+    private volatile DocumentListener listener;
 
     public Document(DocumentState initialState) {
-        this.currentState = initialState;
+        this.status = initialState.getStatus().ordinal();
     }
 
+    public DocumentStatus getStatus() {
+        return DocumentStatus.of(status);
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    void attach(long id, DocumentListener listener) {
+        this.id = id;
+        this.listener = listener;
+    }
+
+    // Moves to newState if the transition table has an edge to it, and throws otherwise.
     public void changeState(DocumentState newState) {
-        this.currentState = newState;
-        System.out.println("Document state changed to: " + newState.getClass().getSimpleName());
+        int next = newState.getStatus().ordinal();
+        int current;
+        do {
+            current = status;
+            if (!DocumentStateMachine.isAllowed(current, next)) {
+                throw new IllegalStateException("Cannot change document state from "
+                    + DocumentStatus.of(current).getLabel() + " to " + DocumentStatus.of(next).getLabel());
+            }
+        } while (!STATUS.compareAndSet(this, current, next));
+        statusChanged();
+        System.out.println("Document state changed to: " + DocumentStatus.of(next).getLabel());
+    }
+
+    // Applies event if the current state has a transition for it; returns false otherwise.
+    public boolean fire(DocumentEvent event) {
+        int current;
+        int next;
+        do {
+            current = status;
+            next = DocumentStateMachine.next(current, event);
+            if (next == DocumentStateMachine.NONE) {
+                return false;
+            }
+        } while (!STATUS.compareAndSet(this, current, next));
+        statusChanged();
+        return true;
+    }
+
+    private void statusChanged() {
+        DocumentListener listener = this.listener;
+        if (listener != null) {
+            listener.statusChanged(this);
+        }
     }
 
     public void handleInput(String input) {
-        currentState.handleInput(input);
+        DocumentListener listener = this.listener;
+        if (listener != null) {
+            listener.inputHandled(this, input);
+        }
+        DocumentStatus.of(status).getState().handleInput(input);
+    }
+
+    // Sets the status without checking the transition table or telling the listener; used by recovery.
+    void restoreStatus(DocumentStatus status) {
+        this.status = status.ordinal();
     }
 }
 
-abstract class DocumentPrototype {
-    public abstract DocumentPrototype clone();
+interface DocumentListener {
+    void statusChanged(Document document);
+
+    default void inputHandled(Document document, String input) {
+    }
 }
 
-class ReportType extends DocumentPrototype {
-    private String content;
+// Documents sharded by id, each shard guarded by its own read-write lock and holding the id map and one
+// set per status. A status change re-reads the document's status under the shard lock and moves it to
+// that set, so concurrent transitions on one document leave the index matching the final status.
+// A store opened on a directory also journals every change under the same shard lock, waits for the
+// journal outside it, and every checkpointInterval records starts a snapshot on a background thread.
+class DocumentStore implements DocumentListener {
+    private static final int DEFAULT_SHARDS = 64;
+    private static final long DEFAULT_CHECKPOINT_INTERVAL = 1 << 22;
 
-    public ReportType(String content) {
-        this.content = content;
+    private final Shard[] shards;
+    private final AtomicLong nextId = new AtomicLong();
+    private final AtomicBoolean checkpointing = new AtomicBoolean();
+    private volatile DocumentJournal journal;
+    private volatile long checkpointInterval = DEFAULT_CHECKPOINT_INTERVAL;
+    private volatile long checkpointedRecords;
+    private volatile Thread checkpointer;
+    private volatile UncheckedIOException checkpointFailure;
+
+    public DocumentStore() {
+        this(DEFAULT_SHARDS);
     }
 
-    @Override
-    public DocumentPrototype clone() {
-        Logger.getInstance().log("Cloning ReportType document");
-        return new ReportType(this.content);
+    public DocumentStore(int shards) {
+        this.shards = new Shard[Integer.highestOneBit(Math.max(1, shards - 1)) << 1];
+        for (int i = 0; i < this.shards.length; i++) {
+            this.shards[i] = new Shard();
+        }
     }
 
-    public String getContent() {
-        return content;
+    // Recovers the documents journaled in directory and keeps journaling there. Commits wait for the disk
+    // when syncCommits is set; a batch of records waits at most maxLatencyMillis before it is forced.
+    public static DocumentStore open(Path directory, int shards, long maxLatencyMillis, boolean syncCommits) throws IOException {
+        DocumentStore store = new DocumentStore(shards);
+        long end = 0;
+        if (Files.isDirectory(directory)) {
+            end = DocumentJournal.replay(directory, new JournalVisitor() {
+                @Override
+                public void added(long id, DocumentStatus status) {
+                    // A snapshot may already hold documents added after its position.
+                    Document document = store.get(id);
+                    if (document != null) {
+                        document.restoreStatus(status);
+                        store.statusChanged(document);
+                        return;
+                    }
+                    store.insert(id, new Document(status.getState()));
+                    store.nextId.accumulateAndGet(id + 1, Math::max);
+                }
+
+                @Override
+                public void statusChanged(long id, DocumentStatus status) {
+                    Document document = store.get(id);
+                    if (document != null) {
+                        document.restoreStatus(status);
+                        store.statusChanged(document);
+                    }
+                }
+
+                @Override
+                public void inputHandled(long id, String input) {
+                }
+
+                @Override
+                public void removed(long id) {
+                    store.remove(id);
+                }
+            });
+        }
+        store.journal = new DocumentJournal(directory, end, maxLatencyMillis, syncCommits);
+        store.checkpointedRecords = 0;
+        return store;
     }
-}
 
-class InvoiceType extends DocumentPrototype {
-    private String content;
+    public void setCheckpointInterval(long records) {
+        this.checkpointInterval = records;
+    }
 
-    public InvoiceType(String content) {
-        this.content = content;
+    public long add(Document document) {
+        if (document.getId() >= 0) {
+            throw new IllegalArgumentException("Document is already stored with id " + document.getId());
+        }
+        return insert(nextId.getAndIncrement(), document);
     }
 
-    @Override
-    public DocumentPrototype clone() {
-        Logger.getInstance().log("Cloning InvoiceType document.");
-        return new InvoiceType(this.content);
+    private long insert(long id, Document document) {
+        Shard shard = shard(id);
+        long position;
+        shard.lock.writeLock().lock();
+        try {
+            document.attach(id, this);
+            shard.documents.put(id, document);
+            shard.index(document);
+            position = log(DocumentJournal.ADDED, id, document.getStatus());
+        } finally {
+            shard.lock.writeLock().unlock();
+        }
+        commit(position);
+        return id;
     }
 
-    public String getContent() {
-        return content;
+    public Document get(long id) {
+        Shard shard = shard(id);
+        shard.lock.readLock().lock();
+        try {
+            return shard.documents.get(id);
+        } finally {
+            shard.lock.readLock().unlock();
+        }
+    }
+
+    public Document remove(long id) {
+        Shard shard = shard(id);
+        Document document;
+        long position = 0;
+        shard.lock.writeLock().lock();
+        try {
+            document = shard.documents.remove(id);
+            if (document != null) {
+                for (Set<Document> documents : shard.byStatus) {
+                    documents.remove(document);
+                }
+                document.attach(-1, null);
+                position = log(DocumentJournal.REMOVED, id, null);
+            }
+        } finally {
+            shard.lock.writeLock().unlock();
+        }
+        commit(position);
+        return document;
+    }
+
+    public int size() {
+        int size = 0;
+        for (Shard shard : shards) {
+            shard.lock.readLock().lock();
+            try {
+                size += shard.documents.size();
+            } finally {
+                shard.lock.readLock().unlock();
+            }
+        }
+        return size;
+    }
+
+    // Visits every document whose indexed status is status, one shard at a time. Each shard's matches
+    // are copied under its read lock and visited after it is released, so the action may fire events
+    // or add and remove documents; changes it makes to shards not yet visited are seen.
+    public void forEach(DocumentStatus status, Consumer<Document> action) {
+        for (Shard shard : shards) {
+            Document[] matches;
+            shard.lock.readLock().lock();
+            try {
+                matches = shard.byStatus[status.ordinal()].toArray(new Document[0]);
+            } finally {
+                shard.lock.readLock().unlock();
+            }
+            for (Document document : matches) {
+                action.accept(document);
+            }
+        }
+    }
+
+    public List<Document> find(DocumentStatus status) {
+        List<Document> documents = new ArrayList<>();
+        for (Shard shard : shards) {
+            shard.lock.readLock().lock();
+            try {
+                documents.addAll(shard.byStatus[status.ordinal()]);
+            } finally {
+                shard.lock.readLock().unlock();
+            }
+        }
+        return documents;
+    }
+
+    public int count(DocumentStatus status) {
+        int count = 0;
+        for (Shard shard : shards) {
+            shard.lock.readLock().lock();
+            try {
+                count += shard.byStatus[status.ordinal()].size();
+            } finally {
+                shard.lock.readLock().unlock();
+            }
+        }
+        return count;
+    }
+
+    @Override
+    public void statusChanged(Document document) {
+        Shard shard = shard(document.getId());
+        long position = 0;
+        shard.lock.writeLock().lock();
+        try {
+            if (shard.documents.get(document.getId()) == document) {
+                shard.index(document);
+                position = log(DocumentJournal.STATUS, document.getId(), document.getStatus());
+            }
+        } finally {
+            shard.lock.writeLock().unlock();
+        }
+        commit(position);
+    }
+
+    @Override
+    public void inputHandled(Document document, String input) {
+        DocumentJournal journal = this.journal;
+        if (journal != null) {
+            Shard shard = shard(document.getId());
+            long position;
+            shard.lock.writeLock().lock();
+            try {
+                position = journal.appendInput(document.getId(), input);
+            } finally {
+                shard.lock.writeLock().unlock();
+            }
+            commit(position);
+        }
+    }
+
+    // Snapshots every document as of the journal position read first, copying one shard at a time under
+    // its read lock so commits to the other shards go on. A shard copied later may already hold changes
+    // journaled after that position; recovery replays those records on top of it, which ends in the same
+    // statuses. Checkpoints run one at a time, so snapshot positions only move forward.
+    public synchronized void checkpoint() {
+        DocumentJournal journal = this.journal;
+        if (journal == null) {
+            return;
+        }
+        long records = journal.records();
+        long position = journal.position();
+        long[] ids = new long[1024];
+        byte[] statuses = new byte[ids.length];
+        int count = 0;
+        for (Shard shard : shards) {
+            shard.lock.readLock().lock();
+            try {
+                int size = count + shard.documents.size();
+                if (size > ids.length) {
+                    ids = Arrays.copyOf(ids, Math.max(size, ids.length * 2));
+                    statuses = Arrays.copyOf(statuses, ids.length);
+                }
+                for (int status = 0; status < shard.byStatus.length; status++) {
+                    for (Document document : shard.byStatus[status]) {
+                        ids[count] = document.getId();
+                        statuses[count++] = (byte) status;
+                    }
+                }
+            } finally {
+                shard.lock.readLock().unlock();
+            }
+        }
+        try {
+            journal.writeSnapshot(position, ids, statuses, count);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        checkpointedRecords = records;
+    }
+
+    // Waits for a background checkpoint to finish and closes the journal; a failed background checkpoint
+    // is reported here.
+    public void close() throws IOException {
+        Thread checkpointer = this.checkpointer;
+        if (checkpointer != null) {
+            try {
+                checkpointer.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        DocumentJournal journal = this.journal;
+        if (journal != null) {
+            journal.close();
+        }
+        UncheckedIOException failure = checkpointFailure;
+        if (failure != null) {
+            throw failure.getCause();
+        }
+    }
+
+    private long log(byte type, long id, DocumentStatus status) {
+        DocumentJournal journal = this.journal;
+        return journal == null ? 0 : journal.append(type, id, status);
+    }
+
+    private void commit(long position) {
+        DocumentJournal journal = this.journal;
+        if (journal == null || position == 0) {
+            return;
+        }
+        journal.awaitDurable(position);
+        if (journal.records() - checkpointedRecords >= checkpointInterval && checkpointing.compareAndSet(false, true)) {
+            Thread checkpointer = new Thread(this::checkpointInBackground, "store-checkpoint");
+            checkpointer.setDaemon(true);
+            this.checkpointer = checkpointer;
+            checkpointer.start();
+        }
+    }
+
+    private void checkpointInBackground() {
+        try {
+            checkpoint();
+        } catch (UncheckedIOException e) {
+            checkpointFailure = e;
+        } finally {
+            checkpointing.set(false);
+        }
+    }
+
+    private Shard shard(long id) {
+        return shards[(int) (id ^ id >>> 32) * 0x9E3779B9 >>> 16 & shards.length - 1];
+    }
+
+    private static final class Shard {
+        final ReadWriteLock lock = new ReentrantReadWriteLock();
+        final DocumentTable documents = new DocumentTable();
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        final Set<Document>[] byStatus = new Set[DocumentStatus.values().length];
+
+        Shard() {
+            for (int i = 0; i < byStatus.length; i++) {
+                byStatus[i] = new HashSet<>();
+            }
+        }
+
+        void index(Document document) {
+            int status = document.getStatus().ordinal();
+            for (int i = 0; i < byStatus.length; i++) {
+                if (i == status) {
+                    byStatus[i].add(document);
+                } else {
+                    byStatus[i].remove(document);
+                }
+            }
+        }
+    }
+}
+
+// Open-addressed map from id to Document with linear probing and backward-shift deletion; ids are
+// stored unboxed so a lookup touches the id array and the value array only.
+final class DocumentTable {
+    private long[] ids = new long[16];
+    private Document[] documents = new Document[16];
+    private int size;
+
+    public int size() {
+        return size;
+    }
+
+    public Document get(long id) {
+        int mask = ids.length - 1;
+        for (int slot = slot(id, mask); documents[slot] != null; slot = slot + 1 & mask) {
+            if (ids[slot] == id) {
+                return documents[slot];
+            }
+        }
+        return null;
+    }
+
+    public void put(long id, Document document) {
+        if (size + 1 > ids.length >> 1) {
+            resize();
+        }
+        int mask = ids.length - 1;
+        int slot = slot(id, mask);
+        while (documents[slot] != null && ids[slot] != id) {
+            slot = slot + 1 & mask;
+        }
+        if (documents[slot] == null) {
+            size++;
+        }
+        ids[slot] = id;
+        documents[slot] = document;
+    }
+
+    public Document remove(long id) {
+        int mask = ids.length - 1;
+        int slot = slot(id, mask);
+        while (documents[slot] != null && ids[slot] != id) {
+            slot = slot + 1 & mask;
+        }
+        Document removed = documents[slot];
+        if (removed == null) {
+            return null;
+        }
+        // Pull later entries of the probe run back into the hole so lookups never stop early.
+        int hole = slot;
+        for (int next = hole + 1 & mask; documents[next] != null; next = next + 1 & mask) {
+            int home = slot(ids[next], mask);
+            if ((next - home & mask) >= (next - hole & mask)) {
+                ids[hole] = ids[next];
+                documents[hole] = documents[next];
+                hole = next;
+            }
+        }
+        documents[hole] = null;
+        size--;
+        return removed;
+    }
+
+    private void resize() {
+        long[] oldIds = ids;
+        Document[] oldDocuments = documents;
+        ids = new long[oldIds.length * 2];
+        documents = new Document[oldIds.length * 2];
+        size = 0;
+        for (int i = 0; i < oldIds.length; i++) {
+            if (oldDocuments[i] != null) {
+                put(oldIds[i], oldDocuments[i]);
+            }
+        }
+    }
+
+    private static int slot(long id, int mask) {
+        long hash = id * 0x9E3779B97F4A7C15L;
+        return (int) (hash >>> 32) & mask;
+    }
+}
+
+// Loads an in-memory store and runs a mixed workload on it from 1, 2, 4 ... up to 32 threads, printing the
+// operations per second at each count; each operation is a get (70%), an event sent to a random document
+// (25%), an add (4%) or a count of one status (1%). The status indexes are then checked against every
+// document: java StoreBenchmark [documents] [seconds per thread count] [maximum threads]
+class StoreBenchmark {
+    public static void main(String[] args) throws InterruptedException {
+        int documents = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        long nanos = TimeUnit.SECONDS.toNanos(args.length > 1 ? Long.parseLong(args[1]) : 2);
+        int maxThreads = args.length > 2 ? Integer.parseInt(args[2]) : 32;
+        DocumentStore store = new DocumentStore();
+        DocumentState draft = new DraftState();
+        long started = System.nanoTime();
+        for (int i = 0; i < documents; i++) {
+            store.add(new Document(draft));
+        }
+        System.out.printf("loaded %d documents in %d ms%n", documents, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started));
+
+        DocumentEvent[] events = DocumentEvent.values();
+        for (int threads = 1; threads <= maxThreads; threads *= 2) {
+            LongAdder operations = new LongAdder();
+            Thread[] workers = new Thread[threads];
+            long deadline = System.nanoTime() + nanos;
+            for (int t = 0; t < threads; t++) {
+                workers[t] = new Thread(() -> {
+                    ThreadLocalRandom random = ThreadLocalRandom.current();
+                    long done = 0;
+                    while (System.nanoTime() < deadline) {
+                        for (int i = 0; i < 100; i++) {
+                            int kind = random.nextInt(100);
+                            long id = random.nextLong(documents);
+                            if (kind < 70) {
+                                store.get(id);
+                            } else if (kind < 95) {
+                                Document document = store.get(id);
+                                if (document != null) {
+                                    document.fire(events[random.nextInt(events.length)]);
+                                }
+                            } else if (kind < 99) {
+                                store.add(new Document(draft));
+                            } else {
+                                store.count(DocumentStatus.REVIEW);
+                            }
+                        }
+                        done += 100;
+                    }
+                    operations.add(done);
+                });
+                workers[t].start();
+            }
+            for (Thread worker : workers) {
+                worker.join();
+            }
+            System.out.printf("%2d threads: %.2f M operations/s%n", threads, operations.sum() * 1e3 / nanos);
+        }
+
+        int indexed = 0;
+        for (DocumentStatus status : DocumentStatus.values()) {
+            for (Document document : store.find(status)) {
+                if (document.getStatus() != status) {
+                    throw new IllegalStateException("Document " + document.getId() + " indexed as " + status
+                        + " but is " + document.getStatus());
+                }
+                indexed++;
+            }
+        }
+        if (indexed != store.size()) {
+            throw new IllegalStateException(indexed + " documents indexed, " + store.size() + " stored");
+        }
+        System.out.printf("status indexes match all %d documents%n", indexed);
+    }
+}
+
+interface JournalVisitor {
+    void added(long id, DocumentStatus status);
+
+    void statusChanged(long id, DocumentStatus status);
+
+    void inputHandled(long id, String input);
+
+    void removed(long id);
+}
+
+// Write-ahead log of document changes with group commit. Records are appended to an in-memory batch
+// under the journal's monitor; a flusher thread writes each batch and forces it to disk, so one fsync
+// covers every record appended meanwhile. A batch waits at most maxLatencyMillis for company unless a
+// caller is blocked in awaitDurable(). Positions are logical byte offsets across all segments; each
+// segment file journal-NNNNNN.wal starts with MAGIC and the position of its first record, and each
+// record is [int payload length][int CRC32 of payload][byte type][long id][status byte or UTF-8 input].
+// A snapshot file holds the status of every document at a position, so recovery only replays the
+// records after it, and segments that end before the latest snapshot are deleted.
+class DocumentJournal implements Closeable {
+    static final byte ADDED = 1, STATUS = 2, INPUT = 3, REMOVED = 4;
+    private static final int SEGMENT_MAGIC = 0x57414C31;
+    private static final int SNAPSHOT_MAGIC = 0x534E4150;
+    private static final int SEGMENT_HEADER_SIZE = 12;
+    private static final int RECORD_HEADER_SIZE = 8;
+    private static final long SEGMENT_SIZE = 64L << 20;
+    private static final int BATCH_SIZE = 1 << 20;
+    private static final String SNAPSHOT = "snapshot.dat";
+
+    private final Path directory;
+    private final long maxLatencyNanos;
+    private final boolean syncCommits;
+    private final CRC32 crc = new CRC32();
+    private final Thread flusher;
+    private ByteBuffer pending = ByteBuffer.allocate(BATCH_SIZE);
+    private ByteBuffer writing = ByteBuffer.allocate(BATCH_SIZE);
+    private long pendingSince;
+    private long appended;
+    private long records;
+    private int waiters;
+    private boolean closed;
+    private IOException failure;
+    private volatile long durable;
+    // Owned by the flusher thread once it runs.
+    private FileChannel channel;
+    private int segment;
+
+    // Continues after whatever the directory already holds, in a fresh segment; end is the position
+    // replay() returned for it, or 0 for a new directory.
+    public DocumentJournal(Path directory, long end, long maxLatencyMillis, boolean syncCommits) throws IOException {
+        this.directory = Files.createDirectories(directory);
+        this.maxLatencyNanos = TimeUnit.MILLISECONDS.toNanos(maxLatencyMillis);
+        this.syncCommits = syncCommits;
+        List<Path> segments = segments(directory);
+        segment = segments.isEmpty() ? 0 : index(segments.get(segments.size() - 1)) + 1;
+        appended = end;
+        durable = end;
+        channel = openSegment(segment, end);
+        flusher = new Thread(this::flushLoop, "journal-flusher");
+        flusher.setDaemon(true);
+        flusher.start();
+    }
+
+    public long append(byte type, long id, DocumentStatus status) {
+        return append(type, id, status == null ? null : new byte[]{(byte) status.ordinal()});
+    }
+
+    public long appendInput(long id, String input) {
+        return append(INPUT, id, input.getBytes(StandardCharsets.UTF_8));
+    }
+
+    // Returns the position just after the record, to pass to awaitDurable().
+    private synchronized long append(byte type, long id, byte[] body) {
+        if (closed) {
+            throw new IllegalStateException("Journal is closed");
+        }
+        int payload = 9 + (body == null ? 0 : body.length);
+        if (pending.remaining() < RECORD_HEADER_SIZE + payload) {
+            ByteBuffer larger = ByteBuffer.allocate(Math.max(pending.capacity() * 2, pending.position() + RECORD_HEADER_SIZE + payload));
+            pending.flip();
+            pending = larger.put(pending);
+        }
+        if (pending.position() == 0) {
+            pendingSince = System.nanoTime();
+            notifyAll();
+        }
+        int start = pending.position();
+        pending.putInt(payload).putInt(0).put(type).putLong(id);
+        if (body != null) {
+            pending.put(body);
+        }
+        crc.reset();
+        crc.update(pending.array(), start + RECORD_HEADER_SIZE, payload);
+        pending.putInt(start + 4, (int) crc.getValue());
+        appended += RECORD_HEADER_SIZE + payload;
+        records++;
+        if (pending.position() >= BATCH_SIZE) {
+            notifyAll();
+        }
+        return appended;
+    }
+
+    // Blocks until the record ending at position is on disk; returns at once when commits are not synced.
+    public void awaitDurable(long position) {
+        if (!syncCommits || durable >= position) {
+            return;
+        }
+        synchronized (this) {
+            waiters++;
+            try {
+                notifyAll();
+                while (durable < position && failure == null && !closed) {
+                    wait();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                waiters--;
+            }
+            if (failure != null) {
+                throw new UncheckedIOException(failure);
+            }
+        }
+    }
+
+    public synchronized long position() {
+        return appended;
+    }
+
+    public synchronized long records() {
+        return records;
+    }
+
+    private void flushLoop() {
+        while (true) {
+            long end;
+            synchronized (this) {
+                try {
+                    while (pending.position() == 0 && !closed) {
+                        wait();
+                    }
+                    while (!closed && waiters == 0 && pending.position() < BATCH_SIZE) {
+                        long remaining = pendingSince + maxLatencyNanos - System.nanoTime();
+                        if (remaining <= 0) {
+                            break;
+                        }
+                        TimeUnit.NANOSECONDS.timedWait(this, remaining);
+                    }
+                } catch (InterruptedException e) {
+                    return;
+                }
+                if (pending.position() == 0) {
+                    return;
+                }
+                ByteBuffer batch = pending;
+                pending = writing;
+                writing = batch;
+                end = appended;
+            }
+            try {
+                writing.flip();
+                while (writing.hasRemaining()) {
+                    channel.write(writing);
+                }
+                channel.force(false);
+                writing.clear();
+                if (channel.position() >= SEGMENT_SIZE) {
+                    channel.close();
+                    channel = openSegment(++segment, end);
+                }
+            } catch (IOException e) {
+                synchronized (this) {
+                    failure = e;
+                    notifyAll();
+                }
+                return;
+            }
+            synchronized (this) {
+                durable = end;
+                notifyAll();
+            }
+        }
+    }
+
+    private FileChannel openSegment(int index, long start) throws IOException {
+        FileChannel channel = FileChannel.open(directory.resolve(String.format("journal-%06d.wal", index)),
+            StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+        ByteBuffer header = ByteBuffer.allocate(SEGMENT_HEADER_SIZE).putInt(SEGMENT_MAGIC).putLong(start);
+        header.flip();
+        while (header.hasRemaining()) {
+            channel.write(header);
+        }
+        channel.force(true);
+        return channel;
+    }
+
+    // Writes the documents as of position to a new snapshot, then deletes segments it makes redundant.
+    public void writeSnapshot(long position, long[] ids, byte[] statuses, int count) throws IOException {
+        Path temporary = directory.resolve(SNAPSHOT + ".tmp");
+        try (FileChannel out = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.WRITE)) {
+            ByteBuffer buffer = ByteBuffer.allocate(1 << 16);
+            CRC32 checksum = new CRC32();
+            buffer.putInt(SNAPSHOT_MAGIC).putLong(position).putInt(count);
+            for (int i = 0; i < count; i++) {
+                if (buffer.remaining() < 9) {
+                    write(out, buffer, checksum);
+                }
+                buffer.putLong(ids[i]).put(statuses[i]);
+            }
+            write(out, buffer, checksum);
+            buffer.putInt((int) checksum.getValue());
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                out.write(buffer);
+            }
+            out.force(true);
+        }
+        Files.move(temporary, directory.resolve(SNAPSHOT), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        List<Path> segments = segments(directory);
+        for (int i = 0; i + 1 < segments.size(); i++) {
+            if (segmentStart(segments.get(i + 1)) > position) {
+                break;
+            }
+            Files.delete(segments.get(i));
+        }
+    }
+
+    private static void write(FileChannel out, ByteBuffer buffer, CRC32 checksum) throws IOException {
+        buffer.flip();
+        checksum.update(buffer.array(), 0, buffer.limit());
+        while (buffer.hasRemaining()) {
+            out.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    // Feeds the latest snapshot and every later journal record to visitor; returns the end position.
+    public static long replay(Path directory, JournalVisitor visitor) throws IOException {
+        long from = readSnapshot(directory, visitor);
+        long end = from;
+        for (Path path : segments(directory)) {
+            end = Math.max(end, readSegment(path, from, visitor));
+        }
+        return end;
+    }
+
+    private static long readSnapshot(Path directory, JournalVisitor visitor) throws IOException {
+        Path path = directory.resolve(SNAPSHOT);
+        if (!Files.exists(path)) {
+            return 0;
+        }
+        ByteBuffer snapshot = ByteBuffer.wrap(Files.readAllBytes(path));
+        CRC32 checksum = new CRC32();
+        if (snapshot.limit() >= 20) {
+            checksum.update(snapshot.array(), 0, snapshot.limit() - 4);
+        }
+        if (snapshot.limit() < 20 || snapshot.getInt() != SNAPSHOT_MAGIC
+                || snapshot.getInt(snapshot.limit() - 4) != (int) checksum.getValue()) {
+            throw new IOException("Corrupt snapshot: " + path);
+        }
+        long position = snapshot.getLong();
+        int count = snapshot.getInt();
+        if (visitor != null) {
+            for (int i = 0; i < count; i++) {
+                visitor.added(snapshot.getLong(), DocumentStatus.of(snapshot.get()));
+            }
+        }
+        return position;
+    }
+
+    // Reads records up to the first torn or corrupt one, passing those at or after from to visitor.
+    private static long readSegment(Path path, long from, JournalVisitor visitor) throws IOException {
+        ByteBuffer segment = ByteBuffer.wrap(Files.readAllBytes(path));
+        if (segment.remaining() < SEGMENT_HEADER_SIZE || segment.getInt() != SEGMENT_MAGIC) {
+            throw new IOException("Not a journal segment: " + path);
+        }
+        long position = segment.getLong();
+        CRC32 checksum = new CRC32();
+        while (segment.remaining() >= RECORD_HEADER_SIZE + 9) {
+            int payload = segment.getInt(segment.position());
+            if (payload < 9 || payload > segment.remaining() - RECORD_HEADER_SIZE) {
+                break;
+            }
+            checksum.reset();
+            checksum.update(segment.array(), segment.position() + RECORD_HEADER_SIZE, payload);
+            if (segment.getInt(segment.position() + 4) != (int) checksum.getValue()) {
+                break;
+            }
+            segment.position(segment.position() + RECORD_HEADER_SIZE);
+            byte type = segment.get();
+            long id = segment.getLong();
+            int body = payload - 9;
+            if (visitor != null && position >= from) {
+                if (type == ADDED) {
+                    visitor.added(id, DocumentStatus.of(segment.get(segment.position())));
+                } else if (type == STATUS) {
+                    visitor.statusChanged(id, DocumentStatus.of(segment.get(segment.position())));
+                } else if (type == INPUT) {
+                    visitor.inputHandled(id, new String(segment.array(), segment.position(), body, StandardCharsets.UTF_8));
+                } else if (type == REMOVED) {
+                    visitor.removed(id);
+                }
+            }
+            segment.position(segment.position() + body);
+            position += RECORD_HEADER_SIZE + payload;
+        }
+        return position;
+    }
+
+    private static List<Path> segments(Path directory) throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(path -> path.getFileName().toString().matches("journal-\\d+\\.wal"))
+                .sorted(Comparator.comparingInt(DocumentJournal::index))
+                .collect(Collectors.toList());
+        }
+    }
+
+    private static int index(Path segment) {
+        String name = segment.getFileName().toString();
+        return Integer.parseInt(name.substring("journal-".length(), name.length() - ".wal".length()));
+    }
+
+    private static long segmentStart(Path segment) throws IOException {
+        try (FileChannel in = FileChannel.open(segment, StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(SEGMENT_HEADER_SIZE);
+            while (header.hasRemaining() && in.read(header) >= 0) {
+            }
+            return header.getLong(4);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            closed = true;
+            notifyAll();
+        }
+        try {
+            flusher.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        channel.close();
+    }
+}
+
+// Immutable document text split into chunks of at most CHUNK_SIZE chars. Edits return a new Content
+// that shares every untouched chunk with the old one, so clones can share one Content until they are
+// written to and an edit costs one chunk plus the chunk table, not the whole text.
+final class Content implements CharSequence {
+    private static final int CHUNK_SIZE = 4096;
+    private static final Content EMPTY = new Content(new String[0], new int[]{0});
+
+    private final String[] chunks;
+    // starts[i] is the offset of chunks[i]; the last entry is the total length.
+    private final int[] starts;
+    private String text;
+
+    private Content(String[] chunks, int[] starts) {
+        this.chunks = chunks;
+        this.starts = starts;
+    }
+
+    public static Content of(String text) {
+        return EMPTY.append(text);
+    }
+
+    public Content append(String text) {
+        return replace(length(), length(), text);
+    }
+
+    public Content replace(int from, int to, String text) {
+        if (from < 0 || to < from || to > length()) {
+            throw new IndexOutOfBoundsException("Range " + from + ".." + to + " outside 0.." + length());
+        }
+        if (chunks.length == 0) {
+            return build(new String[0], split(text), new String[0]);
+        }
+        int first = chunkAt(from);
+        int last = chunkAt(to);
+        String merged = chunks[first].substring(0, from - starts[first]) + text + chunks[last].substring(to - starts[last]);
+        return build(Arrays.copyOfRange(chunks, 0, first), split(merged), Arrays.copyOfRange(chunks, last + 1, chunks.length));
+    }
+
+    private static Content build(String[] before, String[] middle, String[] after) {
+        String[] chunks = new String[before.length + middle.length + after.length];
+        System.arraycopy(before, 0, chunks, 0, before.length);
+        System.arraycopy(middle, 0, chunks, before.length, middle.length);
+        System.arraycopy(after, 0, chunks, before.length + middle.length, after.length);
+        int[] starts = new int[chunks.length + 1];
+        for (int i = 0; i < chunks.length; i++) {
+            starts[i + 1] = starts[i] + chunks[i].length();
+        }
+        return new Content(chunks, starts);
+    }
+
+    private static String[] split(String text) {
+        String[] pieces = new String[(text.length() + CHUNK_SIZE - 1) / CHUNK_SIZE];
+        for (int i = 0; i < pieces.length; i++) {
+            pieces[i] = text.substring(i * CHUNK_SIZE, Math.min(text.length(), (i + 1) * CHUNK_SIZE));
+        }
+        return pieces;
+    }
+
+    // The chunk holding offset, or the last chunk for the offset just past the end.
+    private int chunkAt(int offset) {
+        int index = Arrays.binarySearch(starts, 0, chunks.length, offset);
+        return index >= 0 ? index : -index - 2;
+    }
+
+    @Override
+    public int length() {
+        return starts[chunks.length];
+    }
+
+    @Override
+    public char charAt(int index) {
+        if (index < 0 || index >= length()) {
+            throw new IndexOutOfBoundsException(index);
+        }
+        int chunk = chunkAt(index);
+        return chunks[chunk].charAt(index - starts[chunk]);
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        return toString().substring(start, end);
+    }
+
+    @Override
+    public String toString() {
+        if (text == null) {
+            StringBuilder builder = new StringBuilder(length());
+            for (String chunk : chunks) {
+                builder.append(chunk);
+            }
+            text = builder.toString();
+        }
+        return text;
+    }
+}
+
+
+abstract class DocumentPrototype {
+    private static volatile boolean cloneLogging = true;
+
+    // Set by DocumentRegistry while the document is handed out, so release() knows where it goes back.
+    String registryType;
+
+    public abstract DocumentPrototype clone();
+
+    // clone() without the logging.
+    abstract DocumentPrototype copy();
+
+    // Makes this document a copy of source, which has the same type; used to recycle pooled documents.
+    abstract void copyFrom(DocumentPrototype source);
+
+    public static void setCloneLogging(boolean enabled) {
+        cloneLogging = enabled;
+    }
+
+    static boolean isCloneLogging() {
+        return cloneLogging;
+    }
+}
+
+// Prototypes registered by type name. Documents are created from a per-type pool of released
+// documents and only cloned when the pool is empty; release() returns a document to its pool.
+class DocumentRegistry {
+    private static final int DEFAULT_POOL_SIZE = 1024;
+
+    private final Map<String, Pool> pools = new ConcurrentHashMap<>();
+    private final int poolSize;
+
+    public DocumentRegistry() {
+        this(DEFAULT_POOL_SIZE);
+    }
+
+    public DocumentRegistry(int poolSize) {
+        this.poolSize = poolSize;
+    }
+
+    public void register(String type, DocumentPrototype prototype) {
+        pools.put(type, new Pool(prototype, poolSize));
+    }
+
+    public DocumentPrototype create(String type) {
+        DocumentPrototype[] documents = new DocumentPrototype[1];
+        create(type, documents, 0, 1);
+        return documents[0];
+    }
+
+    public DocumentPrototype[] create(String type, int count) {
+        DocumentPrototype[] documents = new DocumentPrototype[count];
+        create(type, documents, 0, count);
+        return documents;
+    }
+
+    public void create(String type, DocumentPrototype[] target, int offset, int count) {
+        Pool pool = pools.get(type);
+        if (pool == null) {
+            throw new IllegalArgumentException("Unknown document type: " + type);
+        }
+        int reused = pool.take(target, offset, count);
+        for (int i = offset; i < offset + count; i++) {
+            if (i < offset + reused) {
+                target[i].copyFrom(pool.prototype);
+            } else {
+                target[i] = pool.prototype.copy();
+            }
+            target[i].registryType = type;
+        }
+        if (DocumentPrototype.isCloneLogging()) {
+            Logger.getInstance().log(Level.INFO, "Created {} {} documents", count, type);
+        }
+    }
+
+    public void release(DocumentPrototype document) {
+        String type = document.registryType;
+        if (type == null) {
+            throw new IllegalStateException("Document was not created by this registry or is already released");
+        }
+        document.registryType = null;
+        pools.get(type).put(document);
+    }
+
+    private static final class Pool {
+        final DocumentPrototype prototype;
+        private final DocumentPrototype[] free;
+        private int size;
+
+        Pool(DocumentPrototype prototype, int capacity) {
+            this.prototype = prototype;
+            this.free = new DocumentPrototype[capacity];
+        }
+
+        synchronized int take(DocumentPrototype[] target, int offset, int count) {
+            int taken = Math.min(count, size);
+            size -= taken;
+            System.arraycopy(free, size, target, offset, taken);
+            Arrays.fill(free, size, size + taken, null);
+            return taken;
+        }
+
+        // A full pool drops the document and leaves it to the garbage collector.
+        synchronized void put(DocumentPrototype document) {
+            if (size < free.length) {
+                free[size++] = document;
+            }
+        }
+    }
+}
+
+class ReportType extends DocumentPrototype {
+    private Content content;
+
+    public ReportType(String content) {
+        this(Content.of(content));
+    }
+
+    private ReportType(Content content) {
+        this.content = content;
+    }
+
+    @Override
+    public DocumentPrototype clone() {
+        if (isCloneLogging()) {
+            Logger.getInstance().log("Cloning ReportType document");
+        }
+        return copy();
+    }
+
+    @Override
+    DocumentPrototype copy() {
+        return new ReportType(this.content);
+    }
+
+    @Override
+    void copyFrom(DocumentPrototype source) {
+        this.content = ((ReportType) source).content;
+    }
+
+    public String getContent() {
+        return content.toString();
+    }
+
+    public int getContentLength() {
+        return content.length();
+    }
+
+    public void append(String text) {
+        content = content.append(text);
+    }
+
+    public void replace(int from, int to, String text) {
+        content = content.replace(from, to, text);
+    }
+}
+
+class InvoiceType extends DocumentPrototype {
+    private Content content;
+
+    public InvoiceType(String content) {
+        this(Content.of(content));
+    }
+
+    private InvoiceType(Content content) {
+        this.content = content;
+    }
+
+    @Override
+    public DocumentPrototype clone() {
+        if (isCloneLogging()) {
+            Logger.getInstance().log("Cloning InvoiceType document.");
+        }
+        return copy();
+    }
+
+    @Override
+    DocumentPrototype copy() {
+        return new InvoiceType(this.content);
+    }
+
+    @Override
+    void copyFrom(DocumentPrototype source) {
+        this.content = ((InvoiceType) source).content;
+    }
+
+    public String getContent() {
+        return content.toString();
+    }
+
+    public int getContentLength() {
+        return content.length();
+    }
+
+    public void append(String text) {
+        content = content.append(text);
+    }
+
+    public void replace(int from, int to, String text) {
+        content = content.replace(from, to, text);
     }
 }
 
@@ -109,8 +1937,9 @@ public class Singleton_State_Prototype {
         DocumentPrototype clonedReport = reportPrototype.clone();
         DocumentPrototype clonedInvoice = invoicePrototype.clone();
 
-        Logger.getInstance().log("Created a new report document with content: " + ((ReportType) clonedReport).getContent());
-        Logger.getInstance().log("Created a new invoice document with content: " + ((InvoiceType) clonedInvoice).getContent());
+        Logger.getInstance().log(Level.INFO, "Created a new report document with content: {}", ((ReportType) clonedReport).getContent());
+        Logger.getInstance().log(Level.INFO, "Created a new invoice document with content: {}", ((InvoiceType) clonedInvoice).getContent());
+        Logger.getInstance().flush();
 
         DocumentState draft = new DraftState();
         DocumentState review = new ReviewState();